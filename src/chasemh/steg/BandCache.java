@@ -0,0 +1,107 @@
+package chasemh.steg;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BandCache Class. The compressed bands of a key image, kept so encrypted images can be written as PNG without
+ * compressing the whole image again.
+ *
+ * The bands are independent, so a band's compressed bytes depend only on its own rows. An encrypted image differs
+ * from its key in a handful of pixels, so PngEncoder only compresses the bands holding those pixels again and copies
+ * every other band from the cache. The bands are only reused by an encoder with the same settings they were
+ * compressed with.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class BandCache {
+
+	private final int width, height;
+	private final int bandRows;
+	private final int level;
+	private final PngEncoder.Strategy strategy;
+	private final PngEncoder.Filter filter;
+
+	/**
+	 * The compressed bands in row order.
+	 */
+	private final List<PngEncoder.Band> bands;
+
+	/**
+	 * Creates a cache of compressed bands.
+	 *
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param bandRows The number of rows in each band
+	 * @param level The deflate level the bands were compressed at
+	 * @param strategy The deflate strategy the bands were compressed with
+	 * @param filter The scanline filter the bands were compressed with
+	 * @param bands The compressed bands in row order
+	 *
+	 * @since 1.1
+	 */
+	BandCache( int width, int height, int bandRows, int level, PngEncoder.Strategy strategy, PngEncoder.Filter filter, List<PngEncoder.Band> bands ) {
+		this.width = width;
+		this.height = height;
+		this.bandRows = bandRows;
+		this.level = level;
+		this.strategy = strategy;
+		this.filter = filter;
+		this.bands = Collections.unmodifiableList( bands );
+	}
+
+	/**
+	 * Returns true if an encoder would compress the bands of an image of the given size exactly as they are cached.
+	 *
+	 * @param encoder The encoder
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @return True if the cached bands can be used
+	 *
+	 * @since 1.1
+	 */
+	boolean matches( PngEncoder encoder, int width, int height ) {
+		return this.width == width && this.height == height && this.level == encoder.getLevel()
+				&& this.strategy == encoder.getStrategy() && this.filter == encoder.getFilter();
+	}
+
+	/**
+	 * Gets the number of rows in each band.
+	 *
+	 * @return The rows in each band
+	 *
+	 * @since 1.1
+	 */
+	int bandRows() {
+		return this.bandRows;
+	}
+
+	/**
+	 * Gets the compressed bands.
+	 *
+	 * @return The bands in row order
+	 *
+	 * @since 1.1
+	 */
+	List<PngEncoder.Band> bands() {
+		return this.bands;
+	}
+
+	/**
+	 * Gets the number of compressed bytes held by the cache.
+	 *
+	 * @return The size of all the bands in bytes
+	 *
+	 * @since 1.1
+	 */
+	long compressedBytes() {
+		long bytes = 0;
+		for( PngEncoder.Band band : this.bands ) {
+			bytes += band.size();
+		}
+		return bytes;
+	}
+
+}
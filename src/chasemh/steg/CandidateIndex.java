@@ -0,0 +1,258 @@
+package chasemh.steg;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CandidateIndex Class. Answers "how many key pixels in a range can fit this character" and "which is the k-th of them"
+ * without probing pixels, using one RankSelectBitSet per class of characters that need the same headroom.
+ * Sets are built from the HeadroomMap the first time a class is needed and kept for the life of the key, or loaded
+ * ready built from a key file.
+ * Only the classes of the characters a sanitized ASCII message can contain are indexed, so whether a character is
+ * supported never depends on which characters were asked about first. That bounds the index to MAX_CLASSES / 8
+ * bytes per key pixel. Characters outside of the indexed classes are reported as unsupported and must be searched
+ * for directly.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class CandidateIndex {
+
+	/**
+	 * The classes that are indexed: those of every character in Steg.MESSAGE_CHARACTERS.
+	 */
+	private static final Set<Integer> INDEXED_CLASSES = indexedClasses( Steg.MESSAGE_CHARACTERS );
+
+	/**
+	 * The largest number of character classes that will be indexed.
+	 */
+	static final int MAX_CLASSES = INDEXED_CLASSES.size();
+
+	/**
+	 * Stands in for the set of a class that every pixel can fit. It is the only set with no bits.
+	 */
+	static final RankSelectBitSet ALL_PIXELS = new RankSelectBitSet( 0, new long[ 1 ] );
+
+	/**
+	 * The headroom map the sets are built from.
+	 */
+	private final HeadroomMap headroom;
+
+	/**
+	 * The set of fitting pixels for each indexed class, keyed by the class of the character.
+	 * Read without locking so many threads can select pixels at once; sets are only added while holding the index's lock.
+	 */
+	private final Map<Integer, RankSelectBitSet> sets = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of bytes used by the sets built so far. Only written while holding the index's lock, and read
+	 * without it, such as by a KeyCache weighing the key while a set is being built.
+	 */
+	private volatile long memoryBytes;
+
+	/**
+	 * Creates a new, empty CandidateIndex over a headroom map.
+	 *
+	 * @param headroom The headroom map of the key
+	 *
+	 * @since 1.1
+	 */
+	CandidateIndex( HeadroomMap headroom ) {
+		this.headroom = headroom;
+	}
+
+	/**
+	 * Creates a new CandidateIndex over a headroom map holding sets that were built earlier, such as those in a key file.
+	 *
+	 * @param headroom The headroom map of the key
+	 * @param sets The sets to start with, keyed by class
+	 *
+	 * @since 1.1
+	 */
+	CandidateIndex( HeadroomMap headroom, Map<Integer, RankSelectBitSet> sets ) {
+		this.headroom = headroom;
+		this.sets.putAll( sets );
+		for( RankSelectBitSet set : sets.values() ) {
+			this.memoryBytes += set == ALL_PIXELS ? 0 : set.memoryBytes();
+		}
+	}
+
+	/**
+	 * Gets the classes of the characters in a string that can be indexed.
+	 *
+	 * @param chars The characters
+	 * @return The classes
+	 *
+	 * @since 1.1
+	 */
+	private static Set<Integer> indexedClasses( CharSequence chars ) {
+		Set<Integer> classes = new HashSet<>();
+		for( int i = 0; i < chars.length(); ++i ) {
+			if( HeadroomMap.fitTable( chars.charAt( i ) ) != null ) {
+				classes.add( classOf( chars.charAt( i ) ) );
+			}
+		}
+		return Collections.unmodifiableSet( classes );
+	}
+
+	/**
+	 * Builds the sets for every indexed character in a string that are not built yet.
+	 *
+	 * @param chars The characters to index
+	 *
+	 * @since 1.1
+	 */
+	void prepare( CharSequence chars ) {
+		for( int i = 0; i < chars.length(); ++i ) {
+			this.supports( chars.charAt( i ) );
+		}
+	}
+
+	/**
+	 * Gets the sets built so far. A class every pixel can fit maps to ALL_PIXELS.
+	 *
+	 * @return A read only view of the sets, keyed by class
+	 *
+	 * @since 1.1
+	 */
+	Map<Integer, RankSelectBitSet> sets() {
+		return Collections.unmodifiableMap( this.sets );
+	}
+
+	/**
+	 * Gets the class of a character. Characters in the same class fit exactly the same pixels.
+	 *
+	 * @param c The character
+	 * @return The class of the character, made of the headroom it needs for each channel gap
+	 *
+	 * @since 1.1
+	 */
+	private static int classOf( char c ) {
+		int key = 0;
+		for( int gap = 0; gap <= 2; ++gap ) {
+			key = ( key << 8 ) | ( HeadroomMap.requiredHeadroom( c, gap ) & 0xFF );
+		}
+		return key;
+	}
+
+	/**
+	 * Gets the set of pixels that can fit the given character, building it if needed.
+	 *
+	 * @param c The character
+	 * @return The set of fitting pixels, ALL_PIXELS if every pixel fits, or null if the character is not indexed
+	 *
+	 * @since 1.1
+	 */
+	private RankSelectBitSet setFor( char c ) {
+		int key = classOf( c );
+		RankSelectBitSet set = this.sets.get( key );
+		return set != null ? set : this.buildSet( c, key );
+	}
+
+	/**
+	 * Builds the set of pixels that can fit the given character, unless another thread already has.
+	 *
+	 * @param c The character
+	 * @param key The class of the character
+	 * @return The set of fitting pixels, ALL_PIXELS if every pixel fits, or null if the character is not indexed
+	 *
+	 * @since 1.1
+	 */
+	private synchronized RankSelectBitSet buildSet( char c, int key ) {
+		RankSelectBitSet set = this.sets.get( key );
+		if( set != null || !INDEXED_CLASSES.contains( key ) ) {
+			return set;
+		}
+
+		boolean[] fits = HeadroomMap.fitTable( c );
+		if( fits == null ) {
+			return null;
+		}
+
+		int size = this.headroom.size();
+		long[] words = new long[ RankSelectBitSet.wordsFor( size ) ];
+		boolean everyPixel = true;
+		for( int i = 0; i < size; ++i ) {
+			if( fits[ this.headroom.summaryOf( i ) ] ) {
+				words[ i >>> 6 ] |= 1L << i;
+			}
+			else {
+				everyPixel = false;
+			}
+		}
+
+		if( everyPixel ) {
+			set = ALL_PIXELS;
+		}
+		else {
+			set = new RankSelectBitSet( size, words );
+			this.memoryBytes += set.memoryBytes();
+		}
+		this.sets.put( key, set );
+		return set;
+	}
+
+	/**
+	 * Returns true if the index can answer queries for the given character.
+	 *
+	 * @param c The character
+	 * @return True if the character is indexed
+	 *
+	 * @since 1.1
+	 */
+	boolean supports( char c ) {
+		return this.setFor( c ) != null;
+	}
+
+	/**
+	 * Counts the pixels in a range that can fit the given character.
+	 *
+	 * @param c The character, which must be supported
+	 * @param searchStart The index of the first pixel in the range
+	 * @param searchEnd The index after the last pixel in the range
+	 * @return The number of fitting pixels in [searchStart, searchEnd)
+	 *
+	 * @since 1.1
+	 */
+	int count( char c, int searchStart, int searchEnd ) {
+		RankSelectBitSet set = this.setFor( c );
+		if( set == ALL_PIXELS ) {
+			return searchEnd - searchStart;
+		}
+		return set.rank( searchEnd ) - set.rank( searchStart );
+	}
+
+	/**
+	 * Finds the k-th pixel, counting from zero, at or after the start of a range that can fit the given character.
+	 *
+	 * @param c The character, which must be supported
+	 * @param searchStart The index of the first pixel in the range
+	 * @param k The number of fitting pixels to skip, less than the count for the range
+	 * @return The index of the pixel
+	 *
+	 * @since 1.1
+	 */
+	int select( char c, int searchStart, int k ) {
+		RankSelectBitSet set = this.setFor( c );
+		if( set == ALL_PIXELS ) {
+			return searchStart + k;
+		}
+		return set.select( set.rank( searchStart ) + k );
+	}
+
+	/**
+	 * Gets the number of bytes used by the sets built so far.
+	 *
+	 * @return The size of the index in bytes
+	 *
+	 * @since 1.1
+	 */
+	long memoryBytes() {
+		return this.memoryBytes;
+	}
+
+}
@@ -1,9 +1,9 @@
 package chasemh.steg;
 
-import java.awt.Color;
-
 /**
  * CipherPixel Class. Used with the Steg class to handle encryption of message characters into pixel data.
+ * A CipherPixel is a view of a single pixel in a PixelStore. Pixels created with coordinates are backed by their own
+ * single pixel store.
  * 
  * @author Chase Hennion <chase_hennion@outlook.com>
  * @version 1.0
@@ -12,30 +12,24 @@ import java.awt.Color;
 public class CipherPixel implements Comparable<CipherPixel> {
 	
 	/**
-	 * The maximum allowed value for R, G, and B.
+	 * The X coordinate for the pixel in an image.
 	 */
-	private static final int COLOR_MAX = 255;
+	private final int x;
 	
 	/**
-	 * The ASCII offset used during encryption.
-	 * This is used to make the encrypted characters smaller so pixels do not appear drastically changed after encryption.
-	 */
-	private static final int ASCII_OFFSET = 63;
-
-	/**
-	 * The X coordinate for the pixel in an image.
+	 * The Y coordinate for the pixel in an image.
 	 */
-	private int x;
+	private final int y;
 	
 	/**
-	 * The Y coordinate for the pixel in an image.
+	 * The PixelStore holding the color of the pixel.
 	 */
-	private int y;
+	private final PixelStore store;
 	
 	/**
-	 * A Color object representing the color of the pixel.
+	 * The index of the pixel in the PixelStore.
 	 */
-	Color color;
+	private final int index;
 	
 	/**
 	 * Creates a new CipherPixel with the given x and y coordinates.
@@ -48,6 +42,8 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	public CipherPixel( int x, int y ) {
 		this.x = x;
 		this.y = y;
+		this.store = new PixelStore( 1, 1 );
+		this.index = 0;
 	}
 	
 	/**
@@ -66,8 +62,10 @@ public class CipherPixel implements Comparable<CipherPixel> {
 		
 		this.x = x;
 		this.y = y;
+		this.store = new PixelStore( 1, 1 );
+		this.index = 0;
 		
-		this.color = new Color( rgba );
+		this.store.setRGB( this.index, PixelCodec.opaque( rgba ) );
 	}
 	
 	/**
@@ -84,7 +82,24 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	public CipherPixel( int x, int y, int r, int g ,int b ) {
 		this.x = x;
 		this.y = y;
-		this.color = new Color( r, g, b  );
+		this.store = new PixelStore( 1, 1 );
+		this.index = 0;
+		this.store.setRGB( this.index, PixelCodec.pack( r, g, b ) );
+	}
+	
+	/**
+	 * Creates a new CipherPixel that views the pixel at the given index of a PixelStore.
+	 * 
+	 * @param store The PixelStore holding the pixel
+	 * @param index The index of the pixel in the store
+	 * 
+	 * @since 1.1
+	 */
+	CipherPixel( PixelStore store, int index ) {
+		this.x = store.getX( index );
+		this.y = store.getY( index );
+		this.store = store;
+		this.index = index;
 	}
 	
 	/**
@@ -117,7 +132,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public int getR() {
-		return this.color.getRed();
+		return PixelCodec.red( this.store.getRGB( this.index ) );
 	}
 	
 	/**
@@ -128,7 +143,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public int getG() {
-		return this.color.getGreen();
+		return PixelCodec.green( this.store.getRGB( this.index ) );
 	}
 	
 	/**
@@ -139,7 +154,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public int getB() {
-		return this.color.getBlue();
+		return PixelCodec.blue( this.store.getRGB( this.index ) );
 	}
 	
 	/**
@@ -150,7 +165,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public int getRGB() {
-		return this.color.getRGB();
+		return PixelCodec.opaque( this.store.getRGB( this.index ) );
 	}
 	
 	/**
@@ -164,32 +179,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 		// Convert the character to an ascii value
 		// Evenly split it into three parts ( floor of divide by 3, then modulo three to get any remainder )
 		// Add split chunk to each r, g and b value
-		
-		int charVal = (int)c - ASCII_OFFSET;
-		int splitVal = Math.floorDiv( charVal, 3 );
-		int remainder = charVal % 3;
-	
-		int newRed = this.color.getRed() + splitVal;
-		int newGreen = this.color.getGreen() + splitVal;
-		int newBlue = this.color.getBlue() + splitVal;
-		
-		// Handle the possible remainder value
-		if( remainder != 0 ) {
-			// Add the remainder to the current lowest value
-			int minVal = Math.min( Math.min( newRed, newGreen ), newBlue );
-			if( minVal == newRed ) {
-				newRed += remainder;
-			}
-			else if( minVal == newGreen ) {
-				newGreen += remainder;
-			}
-			else {
-				newBlue += remainder;
-			}
-		}
-		
-		this.color = new Color( newRed, newGreen, newBlue );
-		
+		this.store.setRGB( this.index, PixelCodec.encipher( this.store.getRGB( this.index ), c ) );
 	}
 	
 	/**
@@ -201,11 +191,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public char decipherCharacter( CipherPixel key ) {
-		int redDiff = this.getR() - key.getR();
-		int greenDiff = this.getG() - key.getG();
-		int blueDiff = this.getB() - key.getB();
-		
-		return (char) ( redDiff + greenDiff + blueDiff + ASCII_OFFSET );
+		return PixelCodec.decipher( this.getRGB(), key.getRGB() );
 	}
 	
 	/**
@@ -221,24 +207,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	public boolean canFitCharacter( char c ) {
 		// Check if this pixels R G B values can fit the given c
 		// That is, if there is enough room between the current RGB values and the max value, 255 to evenly fit the split value of the character
-		
-		int charVal = (int)c - ASCII_OFFSET;
-		int splitVal = Math.floorDiv( charVal, 3 );
-		int remainder = charVal % 3;
-		int minVal = Math.min( Math.min( this.color.getRed(), this.color.getGreen() ), this.color.getBlue() );
-		
-		if( remainder == 0 ) {
-			if( this.color.getRed() + splitVal > COLOR_MAX || this.color.getGreen() + splitVal > COLOR_MAX || this.color.getBlue() + splitVal > COLOR_MAX ) {
-				return false;
-			}
-		}
-		else {
-			if( this.color.getRed() + splitVal > COLOR_MAX || this.color.getGreen() + splitVal > COLOR_MAX || this.color.getBlue() + splitVal > COLOR_MAX || minVal + splitVal + remainder > COLOR_MAX ) {
-				return false;
-			}
-		}
-		
-		return true;
+		return PixelCodec.canFit( this.store.getRGB( this.index ), c );
 	}
 
 	
@@ -251,7 +220,7 @@ public class CipherPixel implements Comparable<CipherPixel> {
 	 * @since 1.0
 	 */
 	public int compareTo( CipherPixel cp ) {		
-		return this.color.getRGB() - cp.getRGB();
+		return this.getRGB() - cp.getRGB();
 	}
 
 }
@@ -0,0 +1,261 @@
+package chasemh.steg;
+
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * DiffScanner Class. Finds the pixels where an encrypted image differs from its key.
+ * Almost every pixel of an encrypted image equals the key, so the scan compares many pixels with a single branch
+ * and only looks at individual pixels where that comparison finds a difference. Two array backed images are compared
+ * a block of LANES pixels at a time. Any other pair of images, such as a mapped key against a decoded image or two
+ * buffers of different byte orders, is compared two pixels per long, with every long put in little endian order
+ * (the first pixel in the low half) before comparing.
+ *
+ * On Java 17 and later with the jdk.incubator.vector module added, array backed images are compared with the Vector
+ * API instead, many pixels per instruction. That scan is compiled from src17 into the versioned part of a
+ * multi-release JAR and loaded when the running JVM can use it, so the Java 8 build keeps the scalar scan.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class DiffScanner {
+
+	/**
+	 * The number of pixels compared together before branching.
+	 */
+	static final int LANES = 8;
+
+	/**
+	 * Mask selecting the red, green and blue components of both pixels in a long holding two packed pixels.
+	 */
+	private static final long PAIR_RGB_MASK = 0x00FFFFFF00FFFFFFL;
+
+	/**
+	 * The name of the class holding the Vector API scan.
+	 */
+	private static final String VECTOR_SCAN = "chasemh.steg.VectorDiffScan";
+
+	/**
+	 * Finds differing pixels between two array backed rasters.
+	 */
+	interface ArrayScan {
+
+		/**
+		 * Finds the first pixel in a range whose color differs between two rasters. Alpha is ignored.
+		 *
+		 * @param a The packed ARGB values of the first image
+		 * @param b The packed ARGB values of the second image
+		 * @param from The index of the first pixel to compare
+		 * @param to The index after the last pixel to compare
+		 * @return The index of the first differing pixel in [from, to), or to if every pixel is the same
+		 *
+		 * @since 1.1
+		 */
+		int nextDifference( int[] a, int[] b, int from, int to );
+
+	}
+
+	/**
+	 * The scan used for array backed rasters: the Vector API scan when it can be loaded, otherwise the scalar scan.
+	 */
+	private static final ArrayScan ARRAY_SCAN = loadArrayScan();
+
+	/**
+	 * The first image.
+	 */
+	private final PixelStore a;
+
+	/**
+	 * The second image.
+	 */
+	private final PixelStore b;
+
+	/**
+	 * True if both images are array backed and compared in blocks rather than in pairs.
+	 */
+	private final boolean arrays;
+
+	/**
+	 * The arrays backing each image, or null for a buffer backed image.
+	 */
+	private final int[] arrayA, arrayB;
+
+	/**
+	 * The pixels of each buffer backed image viewed as longs, or null for an array backed image.
+	 */
+	private final LongBuffer pairsA, pairsB;
+
+	/**
+	 * True for a buffer backed image whose longs hold their first pixel in the high half and must be swapped.
+	 */
+	private final boolean swapA, swapB;
+
+	/**
+	 * Creates a scanner that compares two images of the same size.
+	 *
+	 * @param a The first image
+	 * @param b The second image
+	 *
+	 * @since 1.1
+	 */
+	DiffScanner( PixelStore a, PixelStore b ) {
+		this.a = a;
+		this.b = b;
+
+		this.arrayA = a.array();
+		this.arrayB = b.array();
+		this.arrays = this.arrayA != null && this.arrayB != null;
+
+		this.pairsA = a.pixelPairs();
+		this.pairsB = b.pixelPairs();
+		this.swapA = a.byteOrder() == ByteOrder.BIG_ENDIAN;
+		this.swapB = b.byteOrder() == ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * Finds the first pixel in a range whose color differs between the two images. Alpha is ignored.
+	 *
+	 * @param from The index of the first pixel to compare
+	 * @param to The index after the last pixel to compare
+	 * @return The index of the first differing pixel in [from, to), or to if every pixel is the same
+	 *
+	 * @since 1.1
+	 */
+	int nextDifference( int from, int to ) {
+		if( this.arrays ) {
+			return ARRAY_SCAN.nextDifference( this.arrayA, this.arrayB, from, to );
+		}
+		return this.nextPairDifference( from, to );
+	}
+
+	/**
+	 * Returns true if the pixel at the given index has the same color in both images.
+	 *
+	 * @param index The index of the pixel
+	 * @return True if the colors are the same
+	 *
+	 * @since 1.1
+	 */
+	private boolean samePixel( int index ) {
+		return PixelCodec.sameColor( this.a.getRGB( index ), this.b.getRGB( index ) );
+	}
+
+	/**
+	 * Finds the first differing pixel of two images that are not both array backed, comparing two pixels per long.
+	 *
+	 * @param from The index of the first pixel to compare
+	 * @param to The index after the last pixel to compare
+	 * @return The index of the first differing pixel in [from, to), or to if every pixel is the same
+	 *
+	 * @since 1.1
+	 */
+	private int nextPairDifference( int from, int to ) {
+		int i = from;
+
+		// Line up with the start of a pair
+		if( ( i & 1 ) != 0 && i < to ) {
+			if( !this.samePixel( i ) ) {
+				return i;
+			}
+			i++;
+		}
+
+		// Compare whole pairs, only checking single pixels in a pair that differs
+		int pairEnd = to >>> 1;
+		for( int pair = i >>> 1; pair < pairEnd; ++pair ) {
+			long pairA = pair( this.arrayA, this.pairsA, this.swapA, pair );
+			long pairB = pair( this.arrayB, this.pairsB, this.swapB, pair );
+			if( ( ( pairA ^ pairB ) & PAIR_RGB_MASK ) != 0 ) {
+				int first = pair << 1;
+				return this.samePixel( first ) ? first + 1 : first;
+			}
+		}
+
+		// Finish an odd pixel at the end of the range
+		for( i = Math.max( i, pairEnd << 1 ); i < to; ++i ) {
+			if( !this.samePixel( i ) ) {
+				return i;
+			}
+		}
+
+		return to;
+	}
+
+	/**
+	 * Reads two pixels of an image as a long in little endian order, with the first pixel in the low half.
+	 *
+	 * @param array The array backing the image, or null if it is buffer backed
+	 * @param pairs The pixels of a buffer backed image viewed as longs
+	 * @param swap True if the longs of the buffer hold their first pixel in the high half
+	 * @param pair The index of the pair, half the index of its first pixel
+	 * @return Both pixels packed into a long
+	 *
+	 * @since 1.1
+	 */
+	private static long pair( int[] array, LongBuffer pairs, boolean swap, int pair ) {
+		if( array != null ) {
+			int first = pair << 1;
+			return array[ first ] & 0xFFFFFFFFL | (long)array[ first + 1 ] << 32;
+		}
+		long value = pairs.get( pair );
+		return swap ? Long.rotateLeft( value, 32 ) : value;
+	}
+
+	/**
+	 * Loads the Vector API scan, falling back to the scalar scan when the class is not packaged, the JVM is older
+	 * than Java 17 or the jdk.incubator.vector module has not been added.
+	 *
+	 * @return The scan to use for array backed rasters
+	 *
+	 * @since 1.1
+	 */
+	private static ArrayScan loadArrayScan() {
+		try {
+			ArrayScan scan = (ArrayScan)Class.forName( VECTOR_SCAN ).getDeclaredConstructor().newInstance();
+			// Running the scan once makes sure the vector classes link on this JVM
+			scan.nextDifference( new int[ 1 ], new int[ 1 ], 0, 1 );
+			return scan;
+		}
+		catch( ReflectiveOperationException | LinkageError | RuntimeException e ) {
+			return DiffScanner::nextDifference;
+		}
+	}
+
+	/**
+	 * Finds the first pixel in a range whose color differs between two rasters without the Vector API, comparing
+	 * a block of LANES pixels before branching. Alpha is ignored.
+	 *
+	 * @param a The packed ARGB values of the first image
+	 * @param b The packed ARGB values of the second image
+	 * @param from The index of the first pixel to compare
+	 * @param to The index after the last pixel to compare
+	 * @return The index of the first differing pixel in [from, to), or to if every pixel is the same
+	 *
+	 * @since 1.1
+	 */
+	static int nextDifference( int[] a, int[] b, int from, int to ) {
+		int i = from;
+
+		// Skip whole blocks of identical pixels
+		for( int blockEnd = to - LANES + 1; i < blockEnd; i += LANES ) {
+			int diff = ( a[ i ] ^ b[ i ] ) | ( a[ i + 1 ] ^ b[ i + 1 ] )
+					| ( a[ i + 2 ] ^ b[ i + 2 ] ) | ( a[ i + 3 ] ^ b[ i + 3 ] )
+					| ( a[ i + 4 ] ^ b[ i + 4 ] ) | ( a[ i + 5 ] ^ b[ i + 5 ] )
+					| ( a[ i + 6 ] ^ b[ i + 6 ] ) | ( a[ i + 7 ] ^ b[ i + 7 ] );
+			if( ( diff & PixelCodec.RGB_MASK ) != 0 ) {
+				break;
+			}
+		}
+
+		// Find the pixel within the block, or finish the tail of the range
+		for( ; i < to; ++i ) {
+			if( !PixelCodec.sameColor( a[ i ], b[ i ] ) ) {
+				return i;
+			}
+		}
+
+		return to;
+	}
+
+}
@@ -0,0 +1,237 @@
+package chasemh.steg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HeadroomMap Class. Precomputes, once per key, how much room every pixel has for an enciphered character.
+ * Each pixel is summarised in a single byte: the upper six bits hold 255 minus the largest of its R, G and B
+ * values (saturated at 63) and the lower two bits hold the gap between its largest and smallest values
+ * (saturated at 2). The gap decides whether the remainder of a character's split needs extra room.
+ * The summaries are held in an array, or in a buffer when the map is loaded from a key file.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class HeadroomMap {
+
+	/**
+	 * The largest headroom that can be recorded for a pixel.
+	 */
+	private static final int MAX_HEADROOM = 63;
+
+	/**
+	 * The largest gap between channels that can be recorded for a pixel.
+	 */
+	private static final int MAX_GAP = 2;
+
+	/**
+	 * Number of characters covered by the requirement table. Other characters are tested against the raster.
+	 */
+	private static final int TABLE_SIZE = 256;
+
+	/**
+	 * Marks a requirement that cannot be decided from a saturated headroom.
+	 */
+	private static final int UNDECIDED = Integer.MAX_VALUE;
+
+	/**
+	 * The headroom a pixel needs to fit a character, indexed by character value * 4 + channel gap.
+	 */
+	private static final int[] REQUIRED = new int[ TABLE_SIZE << 2 ];
+
+	static {
+		for( int c = 0; c < TABLE_SIZE; ++c ) {
+			for( int gap = 0; gap <= MAX_GAP; ++gap ) {
+				int required = requiredHeadroom( (char)c, gap );
+				REQUIRED[ ( c << 2 ) | gap ] = required > MAX_HEADROOM ? UNDECIDED : required;
+			}
+		}
+	}
+
+	/**
+	 * The pixels the map was built from.
+	 */
+	private final PixelStore pixels;
+
+	/**
+	 * The packed headroom and channel gap of every pixel, indexed like the PixelStore, or null if the map is buffer backed.
+	 */
+	private final byte[] headroom;
+
+	/**
+	 * The packed headroom and channel gap of every pixel, or null if the map is array backed.
+	 */
+	private final ByteBuffer summaries;
+
+	/**
+	 * Builds the headroom map for a PixelStore.
+	 *
+	 * @param pixels The pixels to summarise
+	 *
+	 * @since 1.1
+	 */
+	HeadroomMap( PixelStore pixels ) {
+		this.pixels = pixels;
+		this.headroom = new byte[ pixels.size() ];
+		this.summaries = null;
+
+		for( int i = 0; i < this.headroom.length; ++i ) {
+			this.headroom[ i ] = summarise( pixels.getRGB( i ) );
+		}
+	}
+
+	/**
+	 * Creates a headroom map over summaries that were built earlier, such as those in a key file.
+	 * The buffer's content is used directly, not copied.
+	 *
+	 * @param pixels The pixels the summaries were built from
+	 * @param summaries The summary of every pixel, starting at the buffer's position
+	 * @throws IllegalArgumentException Thrown when the buffer holds fewer summaries than there are pixels
+	 *
+	 * @since 1.1
+	 */
+	HeadroomMap( PixelStore pixels, ByteBuffer summaries ) {
+		if( summaries.remaining() < pixels.size() ) {
+			throw new IllegalArgumentException( "Headroom buffer of " + summaries.remaining() + " bytes is too small for " + pixels.size() + " pixels" );
+		}
+
+		this.pixels = pixels;
+		this.headroom = null;
+		this.summaries = summaries.slice();
+		this.summaries.limit( pixels.size() );
+	}
+
+	/**
+	 * Summarises a packed pixel as its headroom and channel gap.
+	 *
+	 * @param rgb The packed pixel
+	 * @return The headroom in the upper six bits and the channel gap in the lower two bits
+	 *
+	 * @since 1.1
+	 */
+	static byte summarise( int rgb ) {
+		int r = PixelCodec.red( rgb );
+		int g = PixelCodec.green( rgb );
+		int b = PixelCodec.blue( rgb );
+		int max = Math.max( Math.max( r, g ), b );
+		int min = Math.min( Math.min( r, g ), b );
+
+		int room = Math.min( PixelCodec.COLOR_MAX - max, MAX_HEADROOM );
+		int gap = Math.min( max - min, MAX_GAP );
+
+		return (byte)( ( room << 2 ) | gap );
+	}
+
+	/**
+	 * Calculates the headroom a pixel with the given channel gap needs to fit a character.
+	 * A pixel fits the character if the split fits under its largest channel and the split plus remainder fits
+	 * under its smallest channel, which sits gap values below the largest.
+	 *
+	 * @param c The character to fit
+	 * @param gap The gap between the pixel's largest and smallest channels, at most 2
+	 * @return The headroom the pixel needs
+	 *
+	 * @since 1.1
+	 */
+	static int requiredHeadroom( char c, int gap ) {
+		int splitVal = PixelCodec.split( c );
+		int remainder = PixelCodec.remainder( c );
+		return splitVal + Math.max( 0, remainder - gap );
+	}
+
+	/**
+	 * Gets the number of pixels in the map.
+	 *
+	 * @return The number of pixels in the map.
+	 *
+	 * @since 1.1
+	 */
+	int size() {
+		return this.pixels.size();
+	}
+
+	/**
+	 * Gets the number of bytes of heap used by the map. Summaries held in a direct or mapped buffer are not counted.
+	 *
+	 * @return The size of the map in bytes
+	 *
+	 * @since 1.1
+	 */
+	long memoryBytes() {
+		return this.headroom != null ? this.headroom.length : this.summaries.isDirect() ? 0 : this.size();
+	}
+
+	/**
+	 * Gets the summary of every pixel, such as to write the map to a key file.
+	 *
+	 * @return A read only view of the summaries, indexed like the PixelStore
+	 *
+	 * @since 1.1
+	 */
+	ByteBuffer summaries() {
+		return this.headroom != null ? ByteBuffer.wrap( this.headroom ).asReadOnlyBuffer() : this.summaries.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets the packed headroom and channel gap of a pixel.
+	 *
+	 * @param index The index of the pixel
+	 * @return The headroom in the upper six bits and the channel gap in the lower two bits
+	 *
+	 * @since 1.1
+	 */
+	int summaryOf( int index ) {
+		return ( this.headroom != null ? this.headroom[ index ] : this.summaries.get( index ) ) & 0xFF;
+	}
+
+	/**
+	 * Decides, for every possible pixel summary, whether a pixel with that summary can fit the given character.
+	 *
+	 * @param c The character that is to be tested for encipherment
+	 * @return A table indexed by pixel summary, or null if the character cannot be decided from summaries alone
+	 *
+	 * @since 1.1
+	 */
+	static boolean[] fitTable( char c ) {
+		if( c >= TABLE_SIZE ) {
+			return null;
+		}
+
+		boolean[] fits = new boolean[ 256 ];
+		for( int summary = 0; summary < fits.length; ++summary ) {
+			int gap = summary & 3;
+			if( gap > MAX_GAP ) {
+				continue;
+			}
+			int required = REQUIRED[ ( c << 2 ) | gap ];
+			if( required == UNDECIDED ) {
+				return null;
+			}
+			fits[ summary ] = ( summary >>> 2 ) >= required;
+		}
+		return fits;
+	}
+
+	/**
+	 * Returns true if there is enough room to encipher the given character into the pixel at the given index.
+	 * Gives the same answer as PixelCodec.canFit for the pixel.
+	 *
+	 * @param index The index of the pixel
+	 * @param c The character that is to be tested for encipherment
+	 * @return True if the character can be enciphered into the pixel. False otherwise.
+	 *
+	 * @since 1.1
+	 */
+	boolean canFit( int index, char c ) {
+		if( c < TABLE_SIZE ) {
+			int summary = this.summaryOf( index );
+			int required = REQUIRED[ ( c << 2 ) | ( summary & 3 ) ];
+			if( required != UNDECIDED ) {
+				return ( summary >>> 2 ) >= required;
+			}
+		}
+		return PixelCodec.canFit( this.pixels.getRGB( index ), c );
+	}
+
+}
@@ -0,0 +1,365 @@
+package chasemh.steg;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * ImageCodec Class. Reads and writes image files for the Steg class.
+ *
+ * ImageIO.read and ImageIO.write look every reader and writer up in the service registry and create a new one on
+ * each call, and may buffer the stream through a temporary file. This class keeps one reader and one writer per file
+ * extension for each thread and always streams through memory, so no temporary files are made whatever
+ * ImageIO.setUseCache is set to. Common PNGs are read by PngDecoder and packed images are written as PNG by
+ * a PngEncoder, without going through ImageIO at all. Files with a .qoi extension are read and written by QoiCodec,
+ * and uncompressed .argb, .bmp and .ppm files are memory mapped by MappedCodec.
+ * The time taken by the last read and the last write is recorded.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class ImageCodec {
+
+	/**
+	 * The size of the buffer files are read and written through.
+	 */
+	private static final int FILE_BUFFER = 1 << 16;
+
+	/**
+	 * The image readers of the current thread, keyed by file extension.
+	 */
+	private static final ThreadLocal<Map<String, ImageReader>> READERS = ThreadLocal.withInitial( HashMap::new );
+
+	/**
+	 * The image writers of the current thread, keyed by file extension.
+	 */
+	private static final ThreadLocal<Map<String, ImageWriter>> WRITERS = ThreadLocal.withInitial( HashMap::new );
+
+	/**
+	 * The encoder used for PNG files.
+	 */
+	private volatile PngEncoder pngEncoder = new PngEncoder();
+
+	/**
+	 * The pool that inflates the bands of banded PNGs.
+	 */
+	private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * The time taken by the last call to read, in nanoseconds.
+	 */
+	private volatile long lastReadNanos;
+
+	/**
+	 * The time taken by the last call to write, in nanoseconds.
+	 */
+	private volatile long lastWriteNanos;
+
+	/**
+	 * Gets the extension of a file name, which picks the reader or writer used for it.
+	 *
+	 * @param fileName The file name
+	 * @return The lower case extension, or an empty string if the name has none
+	 *
+	 * @since 1.1
+	 */
+	static String extensionOf( String fileName ) {
+		int i = fileName.lastIndexOf( '.' );
+		return i > 0 ? fileName.substring( i + 1 ).toLowerCase() : "";
+	}
+
+	/**
+	 * Reads an image file into a PixelStore.
+	 *
+	 * @param fileName Path to the image file to read
+	 * @return The pixels of the image
+	 * @throws IOException Thrown when fileName is not a path to a valid image
+	 *
+	 * @since 1.1
+	 */
+	PixelStore read( String fileName ) throws IOException {
+		long start = System.nanoTime();
+		Path path = new File( fileName ).toPath();
+		String extension = extensionOf( fileName );
+
+		if( "qoi".equals( extension ) ) {
+			PixelStore qoi = QoiCodec.decode( Files.readAllBytes( path ) );
+			this.lastReadNanos = System.nanoTime() - start;
+			return qoi;
+		}
+		if( MappedCodec.handles( extension ) ) {
+			PixelStore mapped = MappedCodec.read( path, extension );
+			if( mapped != null ) {
+				this.lastReadNanos = System.nanoTime() - start;
+				return mapped;
+			}
+		}
+
+		PixelStore store = null;
+		try( InputStream in = new BufferedInputStream( Files.newInputStream( path ), FILE_BUFFER ) ) {
+			// Decode common PNGs directly into a PixelStore. Other files are told apart by their first bytes.
+			in.mark( FILE_BUFFER );
+			store = PngDecoder.decode( in, this.pool );
+
+			// The stream can be read again unless an unsupported PNG had more header than the buffer holds
+			if( store == null && rewind( in ) ) {
+				store = readImageIO( in, extension, fileName );
+			}
+		}
+		if( store == null ) {
+			try( InputStream in = new BufferedInputStream( Files.newInputStream( path ), FILE_BUFFER ) ) {
+				store = readImageIO( in, extension, fileName );
+			}
+		}
+
+		this.lastReadNanos = System.nanoTime() - start;
+		return store;
+	}
+
+	/**
+	 * Returns a stream to its mark.
+	 *
+	 * @param in The stream
+	 * @return True if the stream was returned to its mark, false if more was read than the mark holds
+	 *
+	 * @since 1.1
+	 */
+	private static boolean rewind( InputStream in ) {
+		try {
+			in.reset();
+			return true;
+		}
+		catch( IOException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads an image with ImageIO.
+	 *
+	 * @param in The stream to read the image from, positioned at its start
+	 * @param extension The extension of the file, used to pick a reader
+	 * @param fileName The name of the file, for error messages
+	 * @return The pixels of the image
+	 * @throws IOException Thrown when the stream does not hold an image ImageIO can read
+	 *
+	 * @since 1.1
+	 */
+	private static PixelStore readImageIO( InputStream in, String extension, String fileName ) throws IOException {
+		BufferedImage img;
+		try( ImageInputStream stream = new MemoryCacheImageInputStream( in ) ) {
+			ImageReader reader = readerFor( extension, stream );
+			if( reader == null ) {
+				throw new IOException( "Could not read an image from " + fileName );
+			}
+
+			try {
+				reader.setInput( stream, true, true );
+				img = reader.read( 0 );
+			}
+			finally {
+				reader.reset();
+			}
+		}
+
+		return RasterConverter.toPixelStore( img );
+	}
+
+	/**
+	 * Gets this thread's reader for an extension, looking a new one up if there is none yet or if the stream
+	 * holds a format the cached reader cannot decode.
+	 *
+	 * @param extension The extension of the file being read
+	 * @param stream The stream of the file being read
+	 * @return A reader that can decode the stream, or null if no reader can
+	 * @throws IOException Thrown when the stream cannot be inspected
+	 *
+	 * @since 1.1
+	 */
+	private static ImageReader readerFor( String extension, ImageInputStream stream ) throws IOException {
+		Map<String, ImageReader> readers = READERS.get();
+		ImageReader reader = readers.get( extension );
+		if( reader != null && reader.getOriginatingProvider().canDecodeInput( stream ) ) {
+			return reader;
+		}
+
+		Iterator<ImageReader> found = ImageIO.getImageReaders( stream );
+		if( !found.hasNext() ) {
+			return null;
+		}
+		reader = found.next();
+		readers.put( extension, reader );
+		return reader;
+	}
+
+	/**
+	 * Writes an image to file in the format given by the file's extension, replacing the file if it exists.
+	 *
+	 * @param fileName Path to the file to write
+	 * @param img The image to write
+	 * @throws IOException Thrown when the file cannot be written or no writer for its format can encode the image
+	 *
+	 * @since 1.1
+	 */
+	void write( String fileName, BufferedImage img ) throws IOException {
+		this.write( fileName, img, null, null );
+	}
+
+	/**
+	 * Writes an image to file in the format given by the file's extension, replacing the file if it exists.
+	 * PNG files reuse the compressed bands of an image the given image differs from in only a few pixels.
+	 *
+	 * @param fileName Path to the file to write
+	 * @param img The image to write
+	 * @param base The compressed bands of the image img was changed from, or null to encode img in full
+	 * @param changes The pixels where img differs from the cached image, or null if base is null
+	 * @throws IOException Thrown when the file cannot be written or no writer for its format can encode the image
+	 *
+	 * @since 1.1
+	 */
+	void write( String fileName, BufferedImage img, BandCache base, PixelOverlay changes ) throws IOException {
+		long start = System.nanoTime();
+
+		String extension = extensionOf( fileName );
+		int[] packed = RasterConverter.packedPixelData( img );
+		if( "png".equals( extension ) && packed != null ) {
+			// Encode packed images straight from their pixels
+			PixelStore pixels = new PixelStore( img.getWidth(), img.getHeight(), packed );
+			try( OutputStream out = new BufferedOutputStream( Files.newOutputStream( new File( fileName ).toPath() ), FILE_BUFFER ) ) {
+				this.pngEncoder.encode( pixels, base, changes, out );
+			}
+			this.lastWriteNanos = System.nanoTime() - start;
+			return;
+		}
+		if( "qoi".equals( extension ) || MappedCodec.handles( extension ) ) {
+			PixelStore pixels = packed != null ? new PixelStore( img.getWidth(), img.getHeight(), packed ) : RasterConverter.toPixelStore( img );
+			try( OutputStream out = new BufferedOutputStream( Files.newOutputStream( new File( fileName ).toPath() ), FILE_BUFFER ) ) {
+				if( "qoi".equals( extension ) ) {
+					QoiCodec.encode( pixels, out );
+				}
+				else {
+					MappedCodec.write( pixels, extension, out );
+				}
+			}
+			this.lastWriteNanos = System.nanoTime() - start;
+			return;
+		}
+
+		ImageWriter writer = writerFor( extension, img );
+		if( writer == null ) {
+			throw new IOException( "No image writer for '" + extension + "' can write the image to " + fileName );
+		}
+
+		try( OutputStream out = new BufferedOutputStream( Files.newOutputStream( new File( fileName ).toPath() ), FILE_BUFFER );
+				ImageOutputStream stream = new MemoryCacheImageOutputStream( out ) ) {
+			writer.setOutput( stream );
+			writer.write( img );
+		}
+		finally {
+			writer.reset();
+		}
+
+		this.lastWriteNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Gets this thread's writer for an extension, looking a new one up if there is none yet or if the cached
+	 * writer cannot encode the image.
+	 *
+	 * @param extension The extension of the file being written
+	 * @param img The image being written
+	 * @return A writer that can encode the image, or null if no writer for the extension can
+	 *
+	 * @since 1.1
+	 */
+	private static ImageWriter writerFor( String extension, BufferedImage img ) {
+		Map<String, ImageWriter> writers = WRITERS.get();
+		ImageWriter writer = writers.get( extension );
+		if( writer != null && writer.getOriginatingProvider().canEncodeImage( img ) ) {
+			return writer;
+		}
+
+		for( Iterator<ImageWriter> found = ImageIO.getImageWritersBySuffix( extension ); found.hasNext(); ) {
+			writer = found.next();
+			if( writer.getOriginatingProvider().canEncodeImage( img ) ) {
+				writers.put( extension, writer );
+				return writer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the encoder used for PNG files.
+	 *
+	 * @return The PNG encoder
+	 *
+	 * @since 1.1
+	 */
+	PngEncoder pngEncoder() {
+		return this.pngEncoder;
+	}
+
+	/**
+	 * Sets the encoder used for PNG files.
+	 *
+	 * @param pngEncoder The PNG encoder
+	 *
+	 * @since 1.1
+	 */
+	void setPngEncoder( PngEncoder pngEncoder ) {
+		this.pngEncoder = pngEncoder;
+	}
+
+	/**
+	 * Sets the pool that inflates the bands of banded PNGs.
+	 *
+	 * @param pool The pool to use, or null to use the common pool
+	 *
+	 * @since 1.1
+	 */
+	void setPool( ForkJoinPool pool ) {
+		this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Gets the time taken by the last read, including converting the image to a PixelStore.
+	 *
+	 * @return The time taken in nanoseconds, or 0 if nothing has been read
+	 *
+	 * @since 1.1
+	 */
+	long lastReadNanos() {
+		return this.lastReadNanos;
+	}
+
+	/**
+	 * Gets the time taken by the last write.
+	 *
+	 * @return The time taken in nanoseconds, or 0 if nothing has been written
+	 *
+	 * @since 1.1
+	 */
+	long lastWriteNanos() {
+		return this.lastWriteNanos;
+	}
+
+}
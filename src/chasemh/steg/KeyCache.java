@@ -0,0 +1,420 @@
+package chasemh.steg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * KeyCache Class. Holds the keys that were read most recently, up to a limit on their total size, so a program that
+ * works with more keys than it can keep in memory only reads each key again once it has gone unused for a while.
+ *
+ * Each key is weighed by the bytes of heap it uses, so a compiled key used in place from its mapping weighs little.
+ * Keys grow as Steg objects build candidate sets and PNG bands for them, so a key is weighed again each time it is
+ * asked for, and keys are weighed again as they are considered for eviction. When the keys held weigh more than the
+ * limit, the least recently used keys are evicted first. Pinned keys are never evicted, so keys that are always in
+ * use can be kept while the rest of the cache turns over. When several threads ask for a key that is
+ * not held, the key is read once and every thread gets the same KeyImage.
+ *
+ * A key from the cache is used by creating a Steg from it: {@code new Steg( cache.get( keyFilePath ) )}.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public final class KeyCache {
+
+	/**
+	 * A key held by the cache.
+	 */
+	private static final class Entry {
+
+		private final KeyImage key;
+		private long weight;
+		private boolean pinned;
+
+		private Entry( KeyImage key, long weight ) {
+			this.key = key;
+			this.weight = weight;
+		}
+
+	}
+
+	/**
+	 * The most bytes of keys the cache holds, not counting pinned keys that could not be evicted.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * The keys held, by path, from least to most recently used.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+	/**
+	 * The keys being read, by path, which threads asking for the same key wait on.
+	 */
+	private final Map<String, FutureTask<KeyImage>> loading = new HashMap<>();
+
+	private long weight;
+	private long hits, misses, evictions, loads, loadFailures;
+	private long loadNanos;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes The most bytes of keys to hold
+	 *
+	 * @since 1.1
+	 */
+	public KeyCache( long maxBytes ) {
+		if( maxBytes < 0 ) {
+			throw new IllegalArgumentException( "The size of a key cache cannot be negative" );
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a key, reading it if it is not held. A key read by another thread at the same time is waited for rather
+	 * than read again.
+	 *
+	 * @param keyFilePath Path to the key image, or to a compiled key ending in .stegkey
+	 * @return The key
+	 * @throws IOException Thrown when the key cannot be read, or the thread is interrupted while waiting for it
+	 *
+	 * @since 1.1
+	 */
+	public KeyImage get( String keyFilePath ) throws IOException {
+		return this.get( keyFilePath, false );
+	}
+
+	/**
+	 * Gets a key and pins it, so that it stays in the cache until it is unpinned.
+	 *
+	 * @param keyFilePath Path to the key image, or to a compiled key ending in .stegkey
+	 * @return The key
+	 * @throws IOException Thrown when the key cannot be read, or the thread is interrupted while waiting for it
+	 *
+	 * @since 1.1
+	 */
+	public KeyImage pin( String keyFilePath ) throws IOException {
+		return this.get( keyFilePath, true );
+	}
+
+	/**
+	 * Unpins a key, letting it be evicted again. Keys that are not pinned are left alone.
+	 *
+	 * @param keyFilePath Path to the key
+	 *
+	 * @since 1.1
+	 */
+	public synchronized void unpin( String keyFilePath ) {
+		Entry entry = this.entries.get( pathOf( keyFilePath ) );
+		if( entry != null && entry.pinned ) {
+			entry.pinned = false;
+			this.evict();
+		}
+	}
+
+	/**
+	 * Removes a key from the cache, even if it is pinned. Steg objects already using the key are not affected.
+	 * A read of the key that is under way is still given to the threads waiting for it, but not cached, and the next
+	 * request for the key reads it again.
+	 *
+	 * @param keyFilePath Path to the key
+	 *
+	 * @since 1.1
+	 */
+	public synchronized void invalidate( String keyFilePath ) {
+		String path = pathOf( keyFilePath );
+		this.loading.remove( path );
+		Entry entry = this.entries.remove( path );
+		if( entry != null ) {
+			this.weight -= entry.weight;
+		}
+	}
+
+	/**
+	 * Removes every key from the cache, including pinned keys. Reads under way are not cached. The statistics are kept.
+	 *
+	 * @since 1.1
+	 */
+	public synchronized void clear() {
+		this.loading.clear();
+		this.entries.clear();
+		this.weight = 0;
+	}
+
+	/**
+	 * Gets a key, reading it if it is not held.
+	 *
+	 * @param keyFilePath Path to the key
+	 * @param pin If true, the key is pinned
+	 * @return The key
+	 * @throws IOException Thrown when the key cannot be read, or the thread is interrupted while waiting for it
+	 *
+	 * @since 1.1
+	 */
+	private KeyImage get( String keyFilePath, boolean pin ) throws IOException {
+		String path = pathOf( keyFilePath );
+		FutureTask<KeyImage> task;
+		boolean reader = false;
+		synchronized( this ) {
+			Entry entry = this.entries.get( path );
+			if( entry != null ) {
+				++this.hits;
+				entry.pinned |= pin;
+				if( this.reweigh( entry ) ) {
+					this.evict();
+				}
+				return entry.key;
+			}
+
+			++this.misses;
+			task = this.loading.get( path );
+			if( task == null ) {
+				task = new FutureTask<>( () -> KeyImage.read( path ) );
+				this.loading.put( path, task );
+				reader = true;
+			}
+		}
+
+		if( reader ) {
+			long start = System.nanoTime();
+			task.run();
+			long elapsed = System.nanoTime() - start;
+			synchronized( this ) {
+				this.loadNanos += elapsed;
+				++this.loads;
+				try {
+					KeyImage key = task.get();
+					// A key invalidated while it was read is not cached, and one a waiting thread pinned is already held
+					if( this.loading.remove( path, task ) && !this.entries.containsKey( path ) ) {
+						Entry entry = new Entry( key, key.getMemoryBytes() );
+						entry.pinned = pin;
+						this.entries.put( path, entry );
+						this.weight += entry.weight;
+						this.evict();
+					}
+				}
+				catch( ExecutionException | InterruptedException e ) {
+					this.loading.remove( path, task );
+					++this.loadFailures;
+				}
+			}
+		}
+
+		KeyImage key = this.await( task );
+		if( pin ) {
+			// The key may have been evicted or invalidated before this thread got to pin it
+			synchronized( this ) {
+				Entry entry = this.entries.get( path );
+				if( entry == null ) {
+					entry = new Entry( key, key.getMemoryBytes() );
+					this.entries.put( path, entry );
+					this.weight += entry.weight;
+				}
+				entry.pinned = true;
+				this.evict();
+				return entry.key;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Waits for a key to be read.
+	 *
+	 * @param task The task reading the key
+	 * @return The key
+	 * @throws IOException Thrown when the key could not be read, or the thread is interrupted while waiting
+	 *
+	 * @since 1.1
+	 */
+	private KeyImage await( FutureTask<KeyImage> task ) throws IOException {
+		try {
+			return task.get();
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for a key to be read" );
+		}
+		catch( ExecutionException e ) {
+			Throwable cause = e.getCause();
+			if( cause instanceof IOException ) {
+				throw (IOException)cause;
+			}
+			if( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+			if( cause instanceof Error ) {
+				throw (Error)cause;
+			}
+			throw new IOException( cause );
+		}
+	}
+
+	/**
+	 * Weighs a key again, as it may have grown since it was last weighed. The caller must hold the cache's lock.
+	 *
+	 * @param entry The entry holding the key
+	 * @return True if the cache is now over its limit
+	 *
+	 * @since 1.1
+	 */
+	private boolean reweigh( Entry entry ) {
+		long weight = entry.key.getMemoryBytes();
+		this.weight += weight - entry.weight;
+		entry.weight = weight;
+		return this.weight > this.maxBytes;
+	}
+
+	/**
+	 * Weighs every key again. The caller must hold the cache's lock.
+	 *
+	 * @since 1.1
+	 */
+	private void reweighAll() {
+		for( Entry entry : this.entries.values() ) {
+			this.reweigh( entry );
+		}
+	}
+
+	/**
+	 * Evicts the least recently used keys that are not pinned until the cache is within its limit, or only pinned
+	 * keys are left. Each key is weighed again as it is considered, so keys that have grown are evicted at their
+	 * current weight. Nothing is done while the cache is within its limit. The caller must hold the cache's lock.
+	 *
+	 * @since 1.1
+	 */
+	private void evict() {
+		Iterator<Entry> it = this.entries.values().iterator();
+		while( this.weight > this.maxBytes && it.hasNext() ) {
+			Entry entry = it.next();
+			this.reweigh( entry );
+			if( !entry.pinned ) {
+				it.remove();
+				this.weight -= entry.weight;
+				++this.evictions;
+			}
+		}
+	}
+
+	/**
+	 * Gets the path a key is cached by, so different names for the same file share an entry.
+	 *
+	 * @param keyFilePath Path to the key
+	 * @return The absolute, normalized path
+	 *
+	 * @since 1.1
+	 */
+	private static String pathOf( String keyFilePath ) {
+		return new File( keyFilePath ).getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	/**
+	 * Gets the most bytes of keys the cache holds.
+	 *
+	 * @return The limit in bytes
+	 *
+	 * @since 1.1
+	 */
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * Gets the bytes of keys held, including pinned keys, weighing every key again first.
+	 *
+	 * @return The total weight of the keys held
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getWeight() {
+		this.reweighAll();
+		return this.weight;
+	}
+
+	/**
+	 * Gets the number of keys held.
+	 *
+	 * @return The number of keys
+	 *
+	 * @since 1.1
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets the number of requests for a key that was held.
+	 *
+	 * @return The number of hits
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Gets the number of requests for a key that was not held, including those that waited on another thread's read.
+	 *
+	 * @return The number of misses
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Gets the number of keys evicted to keep the cache within its limit.
+	 *
+	 * @return The number of evictions
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Gets the number of keys read, including reads that failed. Requests that waited on another thread's read are
+	 * not counted, so this is at most the number of misses.
+	 *
+	 * @return The number of reads
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getLoads() {
+		return this.loads;
+	}
+
+	/**
+	 * Gets the number of key reads that failed.
+	 *
+	 * @return The number of failed reads
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getLoadFailures() {
+		return this.loadFailures;
+	}
+
+	/**
+	 * Gets the total time spent reading keys, including reads that failed.
+	 *
+	 * @return The time spent reading keys in nanoseconds
+	 *
+	 * @since 1.1
+	 */
+	public synchronized long getLoadNanos() {
+		return this.loadNanos;
+	}
+
+}
@@ -0,0 +1,211 @@
+package chasemh.steg;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * KeyFile Class. Writes and loads compiled keys, which hold everything a KeyImage builds from a key image so that
+ * loading a key takes no decoding and little work proportional to its size.
+ *
+ * A compiled key (.stegkey) is a big endian file laid out as:
+ * <ul>
+ * <li>A 32 byte header: "STGK", the format version, the width and height, the key's fingerprint, the number of
+ * candidate sets and four zero bytes.</li>
+ * <li>The raster, every pixel as a packed ARGB int.</li>
+ * <li>The HeadroomMap summary of every pixel, padded to a multiple of eight bytes.</li>
+ * <li>Each candidate set: the class it indexes and its length in bits, then its words. A length of zero marks a
+ * class every pixel can fit, which has no words.</li>
+ * </ul>
+ * Keys are loaded by memory mapping the file. The raster, summaries and sets are used in place, so only the rank
+ * directories of the sets are built when a key is loaded.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class KeyFile {
+
+	/**
+	 * The extension of compiled key files.
+	 */
+	static final String EXTENSION = "stegkey";
+
+	/**
+	 * The magic bytes every compiled key starts with, "STGK".
+	 */
+	static final int MAGIC = 0x5354474B;
+
+	/**
+	 * The version of the format. It changes whenever the layout or the meaning of the summaries or sets changes.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The size of the header.
+	 */
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * The size of the buffer the file is written through.
+	 */
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	private KeyFile() {
+	}
+
+	/**
+	 * Reads a compiled key from its mapping.
+	 *
+	 * @param data The bytes of the file
+	 * @return The key, backed by the mapping
+	 * @throws IOException Thrown when the file is not a compiled key of this version
+	 *
+	 * @since 1.1
+	 */
+	private static KeyImage read( ByteBuffer data ) throws IOException {
+		data.order( ByteOrder.BIG_ENDIAN );
+		if( data.getInt( 0 ) != MAGIC ) {
+			throw new IOException( "Not a compiled key" );
+		}
+		if( data.getInt( 4 ) != VERSION ) {
+			throw new IOException( "Unsupported compiled key version " + data.getInt( 4 ) );
+		}
+
+		int width = data.getInt( 8 ), height = data.getInt( 12 );
+		long fingerprint = data.getLong( 16 );
+		int setCount = data.getInt( 24 );
+
+		data.position( HEADER_SIZE );
+		PixelStore pixels = new PixelStore( width, height, data );
+		int size = pixels.size();
+
+		data.position( HEADER_SIZE + 4 * size );
+		HeadroomMap headroom = new HeadroomMap( pixels, data );
+
+		int position = HEADER_SIZE + 4 * size + padded( size );
+		int wordCount = RankSelectBitSet.wordsFor( size );
+		Map<Integer, RankSelectBitSet> sets = new HashMap<>();
+		for( int i = 0; i < setCount; ++i ) {
+			int key = data.getInt( position ), length = data.getInt( position + 4 );
+			position += 8;
+			if( length == 0 ) {
+				sets.put( key, CandidateIndex.ALL_PIXELS );
+				continue;
+			}
+			if( length != size ) {
+				throw new IOException( "Candidate set of " + length + " bits does not match a key of " + size + " pixels" );
+			}
+
+			data.position( position );
+			LongBuffer words = data.slice().order( ByteOrder.BIG_ENDIAN ).asLongBuffer();
+			words.limit( wordCount );
+			sets.put( key, new RankSelectBitSet( length, words ) );
+			position += 8 * wordCount;
+		}
+		return new KeyImage( pixels, headroom, new CandidateIndex( headroom, sets ), fingerprint );
+	}
+
+	/**
+	 * Returns true if a file name is that of a compiled key.
+	 *
+	 * @param fileName The file name
+	 * @return True if the file has the compiled key extension
+	 *
+	 * @since 1.1
+	 */
+	static boolean isKeyFile( String fileName ) {
+		return EXTENSION.equals( ImageCodec.extensionOf( fileName ) );
+	}
+
+	/**
+	 * Rounds a number of bytes up to a multiple of eight.
+	 *
+	 * @param bytes The number of bytes
+	 * @return The number of bytes with padding
+	 *
+	 * @since 1.1
+	 */
+	private static int padded( int bytes ) {
+		return ( bytes + 7 ) & ~7;
+	}
+
+	/**
+	 * Loads a compiled key by memory mapping it.
+	 *
+	 * @param path The path of the compiled key
+	 * @return The key
+	 * @throws IOException Thrown when the file cannot be mapped or is not a valid compiled key
+	 *
+	 * @since 1.1
+	 */
+	static KeyImage load( Path path ) throws IOException {
+		MappedByteBuffer data;
+		try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+			if( channel.size() > Integer.MAX_VALUE ) {
+				throw new IOException( path + " is too large to map" );
+			}
+			data = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		}
+
+		try {
+			return read( data );
+		}
+		catch( IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e ) {
+			throw new IOException( path + " is not a valid compiled key", e );
+		}
+	}
+
+	/**
+	 * Writes a compiled key, replacing the file if it exists. Every candidate set the key's index has built is written.
+	 *
+	 * @param path The path of the file to write
+	 * @param key The key to write
+	 * @throws IOException Thrown when the file cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void write( Path path, KeyImage key ) throws IOException {
+		PixelStore pixels = key.pixels();
+		Map<Integer, RankSelectBitSet> sets = new TreeMap<>( key.candidates().sets() );
+		try( OutputStream out = new BufferedOutputStream( Files.newOutputStream( path ), WRITE_BUFFER ) ) {
+			ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+			header.putInt( MAGIC ).putInt( VERSION ).putInt( pixels.getWidth() ).putInt( pixels.getHeight() );
+			header.putLong( key.getFingerprint() ).putInt( sets.size() ).putInt( 0 );
+			out.write( header.array() );
+
+			MappedCodec.writeInts( pixels, ByteOrder.BIG_ENDIAN, out );
+			Channels.newChannel( out ).write( key.headroom().summaries() );
+			out.write( new byte[ padded( pixels.size() ) - pixels.size() ] );
+
+			for( Map.Entry<Integer, RankSelectBitSet> entry : sets.entrySet() ) {
+				RankSelectBitSet set = entry.getValue();
+				boolean everyPixel = set == CandidateIndex.ALL_PIXELS;
+				ByteBuffer record = ByteBuffer.allocate( 8 );
+				record.putInt( entry.getKey() ).putInt( everyPixel ? 0 : set.length() );
+				out.write( record.array() );
+
+				if( !everyPixel ) {
+					LongBuffer words = set.words();
+					ByteBuffer bytes = ByteBuffer.allocate( 8 * words.remaining() );
+					bytes.asLongBuffer().put( words );
+					out.write( bytes.array() );
+				}
+			}
+		}
+	}
+
+}
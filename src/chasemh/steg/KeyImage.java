@@ -0,0 +1,252 @@
+package chasemh.steg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * KeyImage Class. An encryption/decryption key and everything built from it: its pixels, fingerprint, headroom map,
+ * candidate index and compressed PNG bands.
+ *
+ * A KeyImage is immutable and thread safe, so one key can be read once and shared by any number of Steg objects
+ * on any number of threads. Each Steg only holds its own settings, so memory grows with the number of distinct keys
+ * rather than with the number of Steg objects. The candidate sets and PNG bands are built the first time they are
+ * needed and then shared by every user of the key. PNG bands are kept for every set of encoder settings they are
+ * made with, which are few in practice.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public final class KeyImage {
+
+	/**
+	 * The pixels of the key. They are never changed.
+	 */
+	private final PixelStore pixels;
+
+	/**
+	 * The headroom of every pixel of the key.
+	 */
+	private final HeadroomMap headroom;
+
+	/**
+	 * The sets of pixels that can fit each class of characters.
+	 */
+	private final CandidateIndex candidates;
+
+	/**
+	 * The fingerprint of the key's pixels.
+	 */
+	private final long fingerprint;
+
+	/**
+	 * The key compressed into PNG bands, one cache for each set of encoder settings encrypted images have been saved
+	 * as PNG with. A cache is made the first time an image is saved with its settings.
+	 */
+	private final List<BandCache> bands = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Whether every pixel of the key is opaque, found the first time an encrypted image is saved as PNG: 1 if it is,
+	 * 0 if it is not and -1 if it has not been found yet.
+	 */
+	private volatile int opaque = -1;
+
+	/**
+	 * Creates a key from pixels that are already in memory, such as a buffer backed store.
+	 * The store is used directly and must not be changed afterwards.
+	 *
+	 * @param pixels The pixels of the key image
+	 *
+	 * @since 1.1
+	 */
+	public KeyImage( PixelStore pixels ) {
+		this.pixels = pixels;
+		this.headroom = new HeadroomMap( pixels );
+		this.candidates = new CandidateIndex( this.headroom );
+		this.fingerprint = pixels.fingerprint();
+	}
+
+	/**
+	 * Creates a key from parts that were built earlier, such as those in a compiled key.
+	 *
+	 * @param pixels The pixels of the key image
+	 * @param headroom The headroom map of the pixels
+	 * @param candidates The candidate index over the headroom map
+	 * @param fingerprint The fingerprint of the pixels
+	 *
+	 * @since 1.1
+	 */
+	KeyImage( PixelStore pixels, HeadroomMap headroom, CandidateIndex candidates, long fingerprint ) {
+		this.pixels = pixels;
+		this.headroom = headroom;
+		this.candidates = candidates;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Reads a key from an image file, or loads a key compiled by compile.
+	 *
+	 * @param keyFilePath Path to the key image, or to a compiled key ending in .stegkey
+	 * @return The key
+	 * @throws IOException Thrown when the file is not a valid image or compiled key
+	 *
+	 * @since 1.1
+	 */
+	public static KeyImage read( String keyFilePath ) throws IOException {
+		if( KeyFile.isKeyFile( keyFilePath ) ) {
+			return KeyFile.load( new File( keyFilePath ).toPath() );
+		}
+		return new KeyImage( new ImageCodec().read( keyFilePath ) );
+	}
+
+	/**
+	 * Compiles the key into a file that can be loaded in place of the key image. The file holds the key's pixels,
+	 * headroom map, fingerprint and the candidate set of every ASCII character a sanitized message, its length header
+	 * and its end marker can contain (Steg.MESSAGE_CHARACTERS). It is memory mapped when loaded, so keys load without
+	 * decoding or rebuilding anything.
+	 *
+	 * @param keyFilePath The path of the compiled key to write, which should end in .stegkey
+	 * @throws IOException Thrown when the file cannot be written
+	 *
+	 * @since 1.1
+	 */
+	public void compile( String keyFilePath ) throws IOException {
+		this.candidates.prepare( Steg.MESSAGE_CHARACTERS );
+		for( int i = 0; i < Steg.MESSAGE_CHARACTERS.length(); ++i ) {
+			if( !this.candidates.supports( Steg.MESSAGE_CHARACTERS.charAt( i ) ) ) {
+				throw new IllegalStateException( "The candidate set of '" + Steg.MESSAGE_CHARACTERS.charAt( i ) + "' could not be built" );
+			}
+		}
+		KeyFile.write( new File( keyFilePath ).toPath(), this );
+	}
+
+	/**
+	 * Gets the width of the key.
+	 *
+	 * @return The width in pixels
+	 *
+	 * @since 1.1
+	 */
+	public int getWidth() {
+		return this.pixels.getWidth();
+	}
+
+	/**
+	 * Gets the height of the key.
+	 *
+	 * @return The height in pixels
+	 *
+	 * @since 1.1
+	 */
+	public int getHeight() {
+		return this.pixels.getHeight();
+	}
+
+	/**
+	 * Gets the fingerprint of the key, which identifies it without comparing every pixel.
+	 *
+	 * @return The fingerprint
+	 *
+	 * @since 1.1
+	 */
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+	/**
+	 * Gets the number of bytes of heap used by the key's pixel selection structures: the headroom map and the
+	 * candidate sets built so far. Parts of a compiled key that are used in place from its mapping are not counted.
+	 *
+	 * @return The size of the selection structures in bytes
+	 *
+	 * @since 1.1
+	 */
+	public long getSelectionIndexBytes() {
+		return this.headroom.memoryBytes() + this.candidates.memoryBytes();
+	}
+
+	/**
+	 * Gets the number of bytes of heap used by the key: its pixels, selection structures and PNG bands. The key
+	 * grows as candidate sets and bands are built for it, and parts of a compiled key used in place from its mapping
+	 * are not counted.
+	 *
+	 * @return The size of the key in bytes
+	 *
+	 * @since 1.1
+	 */
+	public long getMemoryBytes() {
+		long bytes = this.pixels.memoryBytes() + this.getSelectionIndexBytes();
+		for( BandCache bands : this.bands ) {
+			bytes += bands.compressedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the pixels of the key. They must not be changed.
+	 *
+	 * @return The pixels
+	 *
+	 * @since 1.1
+	 */
+	PixelStore pixels() {
+		return this.pixels;
+	}
+
+	/**
+	 * Gets the headroom map of the key.
+	 *
+	 * @return The headroom map
+	 *
+	 * @since 1.1
+	 */
+	HeadroomMap headroom() {
+		return this.headroom;
+	}
+
+	/**
+	 * Gets the candidate index of the key.
+	 *
+	 * @return The candidate index
+	 *
+	 * @since 1.1
+	 */
+	CandidateIndex candidates() {
+		return this.candidates;
+	}
+
+	/**
+	 * Gets the key compressed into PNG bands with an encoder's settings, compressing it if it has not been
+	 * compressed with those settings yet. Nothing is compressed when the encoder would not reuse the bands, because
+	 * it does not write band indexes, the key is translucent or the key fits in a single band.
+	 *
+	 * @param encoder The encoder the bands are for
+	 * @return The compressed bands of the key, or null if the encoder would not use them
+	 *
+	 * @since 1.1
+	 */
+	BandCache bands( PngEncoder encoder ) {
+		int width = this.pixels.getWidth(), height = this.pixels.getHeight();
+		if( !encoder.reusesBands( width, height ) ) {
+			return null;
+		}
+		if( this.opaque < 0 ) {
+			this.opaque = PngEncoder.isOpaque( this.pixels ) ? 1 : 0;
+		}
+		if( this.opaque == 0 ) {
+			return null;
+		}
+
+		for( BandCache bands : this.bands ) {
+			if( bands.matches( encoder, width, height ) ) {
+				return bands;
+			}
+		}
+		BandCache bands = encoder.compressBands( this.pixels );
+		this.bands.add( bands );
+		return bands;
+	}
+
+}
@@ -0,0 +1,332 @@
+package chasemh.steg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedCodec Class. Reads and writes uncompressed image files by memory mapping them.
+ *
+ * Three formats are handled, chosen by file extension:
+ * <ul>
+ * <li>.argb, a 16 byte header ("ARGB", the width and height as big endian ints, and four zero bytes) followed by
+ * every pixel as a big endian packed ARGB int, as a PixelStore holds it.</li>
+ * <li>.bmp, 32 bit uncompressed bitmaps. Each pixel is a little endian ARGB int.</li>
+ * <li>.ppm, binary (P6) pixmaps with 8 bit components.</li>
+ * </ul>
+ *
+ * Raw files, and top down bitmaps whose pixels are all opaque or have no alpha, are used in place as buffer backed
+ * stores over the mapping, so they are never decoded or copied and the operating system shares their pages between
+ * every process that maps them. The alpha of bitmaps without an alpha mask is left as stored, which is harmless as
+ * the package ignores alpha when comparing pixels. Bottom up and translucent bitmaps, and pixmaps, which have three
+ * bytes per pixel, are converted from the mapping into an array backed store.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class MappedCodec {
+
+	/**
+	 * The magic bytes every raw ARGB file starts with, "ARGB".
+	 */
+	static final int RAW_MAGIC = 0x41524742;
+
+	/**
+	 * The size of the header of a raw ARGB file, which keeps the pixels aligned.
+	 */
+	static final int RAW_HEADER_SIZE = 16;
+
+	/**
+	 * The magic bytes every bitmap starts with, "BM", as a little endian short.
+	 */
+	private static final int BMP_MAGIC = 0x4D42;
+
+	/**
+	 * The size of the bitmap file header, and of the smallest bitmap info header.
+	 */
+	private static final int BMP_FILE_HEADER_SIZE = 14, BMP_INFO_HEADER_SIZE = 40;
+
+	/**
+	 * The size of the info header holding an alpha mask, BITMAPV3INFOHEADER.
+	 */
+	private static final int BMP_ALPHA_HEADER_SIZE = 56;
+
+	/**
+	 * Bitmap compression types.
+	 */
+	private static final int BI_RGB = 0, BI_BITFIELDS = 3;
+
+	/**
+	 * The size of the buffer pixels are written through.
+	 */
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	private MappedCodec() {
+	}
+
+	/**
+	 * Returns true if files with the given extension are handled by this class.
+	 *
+	 * @param extension The lower case file extension
+	 * @return True for raw ARGB, bitmap and pixmap files
+	 *
+	 * @since 1.1
+	 */
+	static boolean handles( String extension ) {
+		return "argb".equals( extension ) || "bmp".equals( extension ) || "ppm".equals( extension );
+	}
+
+	/**
+	 * Maps an image file and reads its pixels.
+	 *
+	 * @param path The path of the file
+	 * @param extension The lower case extension of the file, which gives its format
+	 * @return The pixels of the image, or null for a bitmap that is not 32 bit and uncompressed
+	 * @throws IOException Thrown when the file cannot be mapped or is not a valid image of its format
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore read( Path path, String extension ) throws IOException {
+		MappedByteBuffer data;
+		try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+			if( channel.size() > Integer.MAX_VALUE ) {
+				throw new IOException( path + " is too large to map" );
+			}
+			data = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		}
+
+		try {
+			switch( extension ) {
+				case "argb":
+					return readRaw( data );
+				case "bmp":
+					return readBitmap( data );
+				default:
+					return readPixmap( data );
+			}
+		}
+		catch( IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException | ArithmeticException e ) {
+			throw new IOException( path + " is not a valid ." + extension + " image", e );
+		}
+	}
+
+	/**
+	 * Reads a raw ARGB file in place.
+	 *
+	 * @param data The bytes of the file
+	 * @return A store backed by the file's pixels
+	 * @throws IOException Thrown when the header is not valid
+	 *
+	 * @since 1.1
+	 */
+	private static PixelStore readRaw( ByteBuffer data ) throws IOException {
+		data.order( ByteOrder.BIG_ENDIAN );
+		if( data.getInt( 0 ) != RAW_MAGIC ) {
+			throw new IOException( "Not a raw ARGB image" );
+		}
+
+		data.position( RAW_HEADER_SIZE );
+		return new PixelStore( data.getInt( 4 ), data.getInt( 8 ), data );
+	}
+
+	/**
+	 * Reads a 32 bit uncompressed bitmap, in place where it can be.
+	 *
+	 * @param data The bytes of the file
+	 * @return The pixels of the bitmap, or null if it is not a 32 bit uncompressed bitmap
+	 * @throws IOException Thrown when the headers are not valid
+	 *
+	 * @since 1.1
+	 */
+	private static PixelStore readBitmap( ByteBuffer data ) throws IOException {
+		data.order( ByteOrder.LITTLE_ENDIAN );
+		int headerSize = data.getInt( BMP_FILE_HEADER_SIZE );
+		if( ( data.getShort( 0 ) & 0xFFFF ) != BMP_MAGIC || headerSize < BMP_INFO_HEADER_SIZE ) {
+			throw new IOException( "Not a bitmap image" );
+		}
+
+		int width = data.getInt( 18 ), height = data.getInt( 22 );
+		int bitCount = data.getShort( 28 ), compression = data.getInt( 30 );
+		boolean alpha = false;
+		if( bitCount != 32 ) {
+			return null;
+		}
+		if( compression == BI_BITFIELDS ) {
+			// The masks follow a plain info header, and are part of any larger one
+			if( data.getInt( 54 ) != 0x00FF0000 || data.getInt( 58 ) != 0x0000FF00 || data.getInt( 62 ) != 0x000000FF ) {
+				return null;
+			}
+			alpha = headerSize >= BMP_ALPHA_HEADER_SIZE && data.getInt( 66 ) == PixelCodec.ALPHA_MASK;
+		}
+		else if( compression != BI_RGB ) {
+			return null;
+		}
+
+		boolean topDown = height < 0;
+		height = Math.abs( height );
+		data.position( data.getInt( 10 ) );
+		PixelStore mapped = new PixelStore( width, height, data );
+		if( topDown && ( !alpha || PngEncoder.isOpaque( mapped ) ) ) {
+			return mapped;
+		}
+
+		// Turn the rows the right way up and draw translucent pixels
+		int[] out = new int[ mapped.size() ];
+		for( int y = 0; y < height; ++y ) {
+			int from = mapped.indexOf( 0, topDown ? y : height - 1 - y ), to = y * width;
+			for( int x = 0; x < width; ++x ) {
+				int argb = mapped.getRGB( from + x );
+				out[ to + x ] = alpha ? RasterConverter.drawn( argb >>> 24, argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF ) : argb;
+			}
+		}
+		return new PixelStore( width, height, out );
+	}
+
+	/**
+	 * Reads a binary pixmap with 8 bit components.
+	 *
+	 * @param data The bytes of the file
+	 * @return The pixels of the pixmap
+	 * @throws IOException Thrown when the header is not valid or the components are not 8 bit
+	 *
+	 * @since 1.1
+	 */
+	private static PixelStore readPixmap( ByteBuffer data ) throws IOException {
+		if( data.get() != 'P' || data.get() != '6' ) {
+			throw new IOException( "Not a binary PPM image" );
+		}
+		int width = readHeaderNumber( data ), height = readHeaderNumber( data ), maxValue = readHeaderNumber( data );
+		if( maxValue != 0xFF ) {
+			throw new IOException( "Unsupported PPM maximum value " + maxValue );
+		}
+
+		// A single whitespace character separates the header from the pixels
+		data.get();
+		int[] out = new int[ Math.multiplyExact( width, height ) ];
+		for( int i = 0, p = data.position(); i < out.length; ++i, p += 3 ) {
+			out[ i ] = PixelCodec.ALPHA_MASK | ( data.get( p ) & 0xFF ) << 16 | ( data.get( p + 1 ) & 0xFF ) << 8 | data.get( p + 2 ) & 0xFF;
+		}
+		return new PixelStore( width, height, out );
+	}
+
+	/**
+	 * Reads a decimal number from a pixmap header, skipping the whitespace and comments before it.
+	 *
+	 * @param data The bytes of the file, positioned before the number
+	 * @return The number
+	 * @throws IOException Thrown when there is no number
+	 *
+	 * @since 1.1
+	 */
+	private static int readHeaderNumber( ByteBuffer data ) throws IOException {
+		int c = data.get();
+		while( Character.isWhitespace( c ) || c == '#' ) {
+			if( c == '#' ) {
+				while( c != '\n' && c != '\r' ) {
+					c = data.get();
+				}
+			}
+			c = data.get();
+		}
+
+		if( c < '0' || c > '9' ) {
+			throw new IOException( "Invalid PPM header" );
+		}
+		int value = 0;
+		for( ; c >= '0' && c <= '9'; c = data.get() ) {
+			value = Math.addExact( Math.multiplyExact( value, 10 ), c - '0' );
+		}
+
+		// Leave the character that ended the number to be read next
+		data.position( data.position() - 1 );
+		return value;
+	}
+
+	/**
+	 * Writes the pixels of a store in the format given by a file extension.
+	 *
+	 * @param pixels The pixels to write
+	 * @param extension The lower case extension of the file being written
+	 * @param out The stream to write the image to. It is flushed but not closed.
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void write( PixelStore pixels, String extension, OutputStream out ) throws IOException {
+		int width = pixels.getWidth(), height = pixels.getHeight();
+		switch( extension ) {
+			case "argb":
+				ByteBuffer raw = ByteBuffer.allocate( RAW_HEADER_SIZE );
+				raw.putInt( RAW_MAGIC ).putInt( width ).putInt( height ).putInt( 0 );
+				out.write( raw.array() );
+				writeInts( pixels, ByteOrder.BIG_ENDIAN, out );
+				break;
+			case "bmp":
+				// A plain info header with a negative height gives a top down bitmap that can be read in place
+				int pixelOffset = BMP_FILE_HEADER_SIZE + BMP_INFO_HEADER_SIZE;
+				ByteBuffer bmp = ByteBuffer.allocate( pixelOffset ).order( ByteOrder.LITTLE_ENDIAN );
+				bmp.putShort( (short)BMP_MAGIC ).putInt( (int)Math.min( Integer.MAX_VALUE, pixelOffset + 4L * pixels.size() ) );
+				bmp.putInt( 0 ).putInt( pixelOffset );
+				bmp.putInt( BMP_INFO_HEADER_SIZE ).putInt( width ).putInt( -height ).putShort( (short)1 ).putShort( (short)32 );
+				bmp.putInt( BI_RGB ).putInt( 4 * pixels.size() ).putInt( 0 ).putInt( 0 ).putInt( 0 ).putInt( 0 );
+				out.write( bmp.array() );
+				writeInts( pixels, ByteOrder.LITTLE_ENDIAN, out );
+				break;
+			default:
+				out.write( ( "P6\n" + width + " " + height + "\n255\n" ).getBytes( StandardCharsets.US_ASCII ) );
+				byte[] buffer = new byte[ WRITE_BUFFER * 3 ];
+				for( int i = 0, size = pixels.size(); i < size; ) {
+					int p = 0;
+					for( int end = Math.min( size, i + WRITE_BUFFER ); i < end; ++i ) {
+						int argb = pixels.getRGB( i );
+						buffer[ p++ ] = (byte)( argb >> 16 );
+						buffer[ p++ ] = (byte)( argb >> 8 );
+						buffer[ p++ ] = (byte)argb;
+					}
+					out.write( buffer, 0, p );
+				}
+				break;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes every pixel of a store as a packed ARGB int.
+	 *
+	 * @param pixels The pixels to write
+	 * @param order The byte order of the ints
+	 * @param out The stream to write to
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void writeInts( PixelStore pixels, ByteOrder order, OutputStream out ) throws IOException {
+		byte[] buffer = new byte[ WRITE_BUFFER * 4 ];
+		IntBuffer ints = ByteBuffer.wrap( buffer ).order( order ).asIntBuffer();
+		int[] array = pixels.array();
+		for( int i = 0, size = pixels.size(); i < size; ) {
+			int count = Math.min( WRITE_BUFFER, size - i );
+			ints.clear();
+			if( array != null ) {
+				ints.put( array, i, count );
+				i += count;
+			}
+			else {
+				for( int end = i + count; i < end; ++i ) {
+					ints.put( pixels.getRGB( i ) );
+				}
+			}
+			out.write( buffer, 0, count * 4 );
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package chasemh.steg;
+
+/**
+ * MessageCollector Class. Rebuilds a message from the characters deciphered out of an encrypted image, in order.
+ *
+ * Messages encrypted with a length header start with their length written in base 16 using the letters 'A' to 'P',
+ * followed by HEADER_END. Sanitized messages never contain HEADER_END, so a message that starts this way always has
+ * a header. Once the header has been read the collector knows how long the message is, sizes its buffer to fit and
+ * reports when the last character has arrived so the caller can stop reading the image.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class MessageCollector {
+
+	/**
+	 * Ends the length header of a message.
+	 */
+	static final char HEADER_END = '[';
+
+	/**
+	 * The character used for the digit 0 of a length header. Digits 0 to 15 are written as 'A' to 'P'.
+	 */
+	private static final char DIGIT_ZERO = 'A';
+
+	/**
+	 * The most digits a length header can have. Eight base 16 digits cover any message length.
+	 */
+	private static final int MAX_DIGITS = 8;
+
+	/**
+	 * The longest message the image being read can hold.
+	 */
+	private final int maxLength;
+
+	/**
+	 * The characters of the message collected so far, or of a possible header while it is being read.
+	 */
+	private StringBuilder sb = new StringBuilder();
+
+	/**
+	 * True once it is known whether the message has a header.
+	 */
+	private boolean decided;
+
+	/**
+	 * The length of the message given by its header, or -1 if it has none.
+	 */
+	private int expectedLength = -1;
+
+	/**
+	 * Creates a new, empty MessageCollector.
+	 *
+	 * @param maxLength The longest message the image being read can hold, used to reject impossible headers
+	 *
+	 * @since 1.1
+	 */
+	MessageCollector( int maxLength ) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Writes the length header for a message.
+	 *
+	 * @param length The length of the message
+	 * @return The header to put in front of the message
+	 *
+	 * @since 1.1
+	 */
+	static String header( int length ) {
+		String hex = Integer.toHexString( length );
+		StringBuilder header = new StringBuilder( hex.length() + 1 );
+		for( int i = 0; i < hex.length(); ++i ) {
+			header.append( (char)( DIGIT_ZERO + Character.digit( hex.charAt( i ), 16 ) ) );
+		}
+		return header.append( HEADER_END ).toString();
+	}
+
+	/**
+	 * Takes the next deciphered character of the message.
+	 *
+	 * @param c The deciphered character
+	 * @return True if more characters are needed, false once the whole message given by the header has been collected
+	 *
+	 * @since 1.1
+	 */
+	boolean accept( char c ) {
+		if( this.decided ) {
+			this.sb.append( restoreSpace( c ) );
+		}
+		else if( c == HEADER_END && this.sb.length() > 0 && Long.parseLong( this.sb.toString(), 16 ) <= this.maxLength ) {
+			// Everything so far was a valid digit, so this is a length header
+			this.expectedLength = Integer.parseInt( this.sb.toString(), 16 );
+			this.sb = new StringBuilder( this.expectedLength );
+			this.decided = true;
+		}
+		else if( c >= DIGIT_ZERO && c < DIGIT_ZERO + 16 && this.sb.length() < MAX_DIGITS ) {
+			// Could still be a header, keep the digit until the header ends
+			this.sb.append( Character.forDigit( c - DIGIT_ZERO, 16 ) );
+		}
+		else {
+			// No header, so the characters held so far are the start of the message
+			this.decideNoHeader();
+			this.sb.append( restoreSpace( c ) );
+		}
+
+		return this.expectedLength < 0 || this.sb.length() < this.expectedLength;
+	}
+
+	/**
+	 * Records that the message has no header and turns the digits held so far back into message characters.
+	 *
+	 * @since 1.1
+	 */
+	private void decideNoHeader() {
+		for( int i = 0; i < this.sb.length(); ++i ) {
+			this.sb.setCharAt( i, (char)( DIGIT_ZERO + Character.digit( this.sb.charAt( i ), 16 ) ) );
+		}
+		this.decided = true;
+	}
+
+	/**
+	 * Gets the length of the message given by its header.
+	 *
+	 * @return The length of the message, or -1 if it has no header or the header has not been read yet
+	 *
+	 * @since 1.1
+	 */
+	int expectedLength() {
+		return this.expectedLength;
+	}
+
+	/**
+	 * Gets the message collected so far.
+	 *
+	 * @return The message string
+	 *
+	 * @since 1.1
+	 */
+	String message() {
+		if( !this.decided ) {
+			this.decideNoHeader();
+		}
+		return this.sb.toString();
+	}
+
+	/**
+	 * Turns the '@' that sanitized messages use for spaces back into a space.
+	 *
+	 * @param c A deciphered character
+	 * @return The character as it appeared in the original message
+	 *
+	 * @since 1.1
+	 */
+	static char restoreSpace( char c ) {
+		return c == '@' ? ' ' : c;
+	}
+
+}
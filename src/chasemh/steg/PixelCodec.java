@@ -0,0 +1,243 @@
+package chasemh.steg;
+
+/**
+ * PixelCodec Class. Enciphers and deciphers message characters directly into packed ARGB pixel values.
+ * All methods are static and allocation free so they can be used in the per-pixel loops of the Steg class.
+ *
+ * Only the red, green and blue components take part in encipherment. Like java.awt.Color, values produced by
+ * this class are always fully opaque and the alpha component is ignored when comparing pixels.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class PixelCodec {
+
+	/**
+	 * The maximum allowed value for R, G, and B.
+	 */
+	static final int COLOR_MAX = 255;
+
+	/**
+	 * The ASCII offset used during encryption.
+	 * This is used to make the encrypted characters smaller so pixels do not appear drastically changed after encryption.
+	 */
+	static final int ASCII_OFFSET = 63;
+
+	/**
+	 * Mask selecting the alpha component of a packed pixel.
+	 */
+	static final int ALPHA_MASK = 0xFF000000;
+
+	/**
+	 * Mask selecting the red, green and blue components of a packed pixel.
+	 */
+	static final int RGB_MASK = 0x00FFFFFF;
+
+	/**
+	 * Number of characters covered by the split tables. Characters beyond this are split arithmetically.
+	 */
+	private static final int TABLE_SIZE = 256;
+
+	/**
+	 * The amount added to each of R, G and B for a character, indexed by character value.
+	 */
+	private static final byte[] SPLIT = new byte[ TABLE_SIZE ];
+
+	/**
+	 * The amount added to the lowest of R, G and B for a character, indexed by character value.
+	 */
+	private static final byte[] REMAINDER = new byte[ TABLE_SIZE ];
+
+	static {
+		for( int c = 0; c < TABLE_SIZE; ++c ) {
+			int charVal = c - ASCII_OFFSET;
+			SPLIT[ c ] = (byte)Math.floorDiv( charVal, 3 );
+			REMAINDER[ c ] = (byte)( charVal % 3 );
+		}
+	}
+
+	private PixelCodec() {
+	}
+
+	/**
+	 * Gets the amount added to each of R, G and B when enciphering the given character.
+	 *
+	 * @param c The character to split
+	 * @return The per-channel split of the character
+	 *
+	 * @since 1.1
+	 */
+	static int split( char c ) {
+		return c < TABLE_SIZE ? SPLIT[ c ] : Math.floorDiv( (int)c - ASCII_OFFSET, 3 );
+	}
+
+	/**
+	 * Gets the extra amount added to the lowest of R, G and B when enciphering the given character.
+	 *
+	 * @param c The character to split
+	 * @return The remainder of the character's split
+	 *
+	 * @since 1.1
+	 */
+	static int remainder( char c ) {
+		return c < TABLE_SIZE ? REMAINDER[ c ] : ( (int)c - ASCII_OFFSET ) % 3;
+	}
+
+	/**
+	 * Gets the Red color value of a packed pixel.
+	 *
+	 * @param rgb The packed pixel
+	 * @return The Red color value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	static int red( int rgb ) {
+		return ( rgb >>> 16 ) & 0xFF;
+	}
+
+	/**
+	 * Gets the Green color value of a packed pixel.
+	 *
+	 * @param rgb The packed pixel
+	 * @return The Green color value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	static int green( int rgb ) {
+		return ( rgb >>> 8 ) & 0xFF;
+	}
+
+	/**
+	 * Gets the Blue color value of a packed pixel.
+	 *
+	 * @param rgb The packed pixel
+	 * @return The Blue color value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	static int blue( int rgb ) {
+		return rgb & 0xFF;
+	}
+
+	/**
+	 * Gets the fully opaque version of a packed pixel, matching java.awt.Color.getRGB().
+	 *
+	 * @param rgb The packed pixel
+	 * @return The packed pixel with its alpha component set to the maximum
+	 *
+	 * @since 1.1
+	 */
+	static int opaque( int rgb ) {
+		return rgb | ALPHA_MASK;
+	}
+
+	/**
+	 * Packs the given color values into a fully opaque pixel.
+	 *
+	 * @param r The Red color value
+	 * @param g The Green color value
+	 * @param b The Blue color value
+	 * @return The packed pixel
+	 * @throws IllegalArgumentException Thrown when a color value is outside of the range 0 to 255
+	 *
+	 * @since 1.1
+	 */
+	static int pack( int r, int g, int b ) {
+		if( ( ( r | g | b ) & ~COLOR_MAX ) != 0 ) {
+			throw new IllegalArgumentException( "Color parameter outside of expected range: " + r + ", " + g + ", " + b );
+		}
+		return ALPHA_MASK | ( r << 16 ) | ( g << 8 ) | b;
+	}
+
+	/**
+	 * Returns true if two packed pixels have the same color, ignoring alpha.
+	 *
+	 * @param a The first packed pixel
+	 * @param b The second packed pixel
+	 * @return True if the red, green and blue values of the pixels are equal
+	 *
+	 * @since 1.1
+	 */
+	static boolean sameColor( int a, int b ) {
+		return ( ( a ^ b ) & RGB_MASK ) == 0;
+	}
+
+	/**
+	 * Enciphers a given character into a packed pixel.
+	 *
+	 * @param rgb The packed pixel to encipher the character into
+	 * @param c The character to encipher
+	 * @return The packed pixel with the character enciphered
+	 * @throws IllegalArgumentException Thrown when the enciphered color values are outside of the range 0 to 255
+	 *
+	 * @since 1.1
+	 */
+	static int encipher( int rgb, char c ) {
+		// Add the split chunk to each r, g and b value
+		int splitVal = split( c );
+		int remainder = remainder( c );
+
+		int newRed = red( rgb ) + splitVal;
+		int newGreen = green( rgb ) + splitVal;
+		int newBlue = blue( rgb ) + splitVal;
+
+		// Add the remainder to the current lowest value
+		if( remainder != 0 ) {
+			if( newRed <= newGreen && newRed <= newBlue ) {
+				newRed += remainder;
+			}
+			else if( newGreen <= newBlue ) {
+				newGreen += remainder;
+			}
+			else {
+				newBlue += remainder;
+			}
+		}
+
+		return pack( newRed, newGreen, newBlue );
+	}
+
+	/**
+	 * Deciphers the character enciphered into a packed pixel given the original, key pixel.
+	 *
+	 * @param encrypted The packed pixel containing the enciphered character
+	 * @param key The original, key pixel
+	 * @return The deciphered character
+	 *
+	 * @since 1.1
+	 */
+	static char decipher( int encrypted, int key ) {
+		int redDiff = red( encrypted ) - red( key );
+		int greenDiff = green( encrypted ) - green( key );
+		int blueDiff = blue( encrypted ) - blue( key );
+
+		return (char)( redDiff + greenDiff + blueDiff + ASCII_OFFSET );
+	}
+
+	/**
+	 * Returns true if there is enough room to encipher the given character into a packed pixel.
+	 * A pixel has enough "room" if the split value of the character can be added to the r, g and b values
+	 * without going over the maximum allowed color value.
+	 *
+	 * @param rgb The packed pixel to test
+	 * @param c The character that is to be tested for encipherment
+	 * @return True if the character can be enciphered into the pixel. False otherwise.
+	 *
+	 * @since 1.1
+	 */
+	static boolean canFit( int rgb, char c ) {
+		int splitVal = split( c );
+		int remainder = remainder( c );
+		int r = red( rgb );
+		int g = green( rgb );
+		int b = blue( rgb );
+
+		if( Math.max( Math.max( r, g ), b ) + splitVal > COLOR_MAX ) {
+			return false;
+		}
+
+		return remainder == 0 || Math.min( Math.min( r, g ), b ) + splitVal + remainder <= COLOR_MAX;
+	}
+
+}
@@ -0,0 +1,206 @@
+package chasemh.steg;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * PixelOverlay Class. A sparse set of pixel changes laid over an unmodified PixelStore.
+ * Changes are kept in an open addressing map from pixel index to packed ARGB value, so recording a change
+ * costs no allocation beyond occasional growth of the map.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public class PixelOverlay {
+
+	/**
+	 * Marks an unused slot in the map. Pixel indices are never negative.
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * The largest fraction of slots that may be in use before the map grows.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/**
+	 * The pixel index held in each slot, or EMPTY.
+	 */
+	private int[] keys;
+
+	/**
+	 * The packed ARGB value held in each slot.
+	 */
+	private int[] values;
+
+	/**
+	 * The number of pixels in the overlay.
+	 */
+	private int size;
+
+	/**
+	 * The number of pixels the overlay can hold before it grows.
+	 */
+	private int threshold;
+
+	/**
+	 * Creates a new, empty PixelOverlay sized to hold the given number of pixels without growing.
+	 *
+	 * @param expectedSize The number of pixels expected to be changed
+	 *
+	 * @since 1.1
+	 */
+	public PixelOverlay( int expectedSize ) {
+		int slots = (int)Math.min( 1 << 30, Math.max( 4, (long)Math.ceil( expectedSize / LOAD_FACTOR ) ) );
+		int capacity = Integer.highestOneBit( slots - 1 ) << 1;
+		this.allocate( capacity );
+	}
+
+	/**
+	 * Allocates empty slot arrays of the given capacity.
+	 *
+	 * @param capacity The number of slots, a power of two
+	 *
+	 * @since 1.1
+	 */
+	private void allocate( int capacity ) {
+		this.keys = new int[ capacity ];
+		this.values = new int[ capacity ];
+		Arrays.fill( this.keys, EMPTY );
+		this.threshold = (int)( capacity * LOAD_FACTOR );
+	}
+
+	/**
+	 * Finds the slot holding the given pixel index, or the empty slot where it belongs.
+	 *
+	 * @param index The pixel index
+	 * @return The slot for the pixel index
+	 *
+	 * @since 1.1
+	 */
+	private int slotOf( int index ) {
+		int mask = this.keys.length - 1;
+		int hash = index * 0x9E3779B9;
+		int slot = ( hash ^ ( hash >>> 16 ) ) & mask;
+		while( this.keys[ slot ] != EMPTY && this.keys[ slot ] != index ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Sets the packed ARGB value of the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @param rgb The new packed ARGB value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public void put( int index, int rgb ) {
+		if( index < 0 ) {
+			throw new IndexOutOfBoundsException( "Pixel index " + index + " is negative" );
+		}
+
+		int slot = this.slotOf( index );
+		if( this.keys[ slot ] == EMPTY ) {
+			if( this.size >= this.threshold ) {
+				this.grow();
+				slot = this.slotOf( index );
+			}
+			this.keys[ slot ] = index;
+			this.size++;
+		}
+		this.values[ slot ] = rgb;
+	}
+
+	/**
+	 * Returns true if the overlay changes the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @return True if the pixel has been changed
+	 *
+	 * @since 1.1
+	 */
+	public boolean contains( int index ) {
+		return index >= 0 && this.keys[ this.slotOf( index ) ] == index;
+	}
+
+	/**
+	 * Gets the packed ARGB value of the pixel at the given index, falling back to the underlying store if the
+	 * overlay does not change it.
+	 *
+	 * @param base The store the overlay is laid over
+	 * @param index The index of the pixel
+	 * @return The packed ARGB value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public int getRGB( PixelStore base, int index ) {
+		int slot = this.slotOf( index );
+		return this.keys[ slot ] == index ? this.values[ slot ] : base.getRGB( index );
+	}
+
+	/**
+	 * Gets the number of pixels changed by the overlay.
+	 *
+	 * @return The number of changed pixels
+	 *
+	 * @since 1.1
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Writes every change in the overlay into the given array of packed ARGB values.
+	 *
+	 * @param argb The array to write to, indexed by pixel index
+	 *
+	 * @since 1.1
+	 */
+	public void applyTo( int[] argb ) {
+		for( int slot = 0; slot < this.keys.length; ++slot ) {
+			int index = this.keys[ slot ];
+			if( index != EMPTY ) {
+				argb[ index ] = this.values[ slot ];
+			}
+		}
+	}
+
+	/**
+	 * Passes the index of every changed pixel to an action, in no particular order.
+	 *
+	 * @param action The action to perform on each index
+	 *
+	 * @since 1.1
+	 */
+	public void forEachIndex( IntConsumer action ) {
+		for( int slot = 0; slot < this.keys.length; ++slot ) {
+			int index = this.keys[ slot ];
+			if( index != EMPTY ) {
+				action.accept( index );
+			}
+		}
+	}
+
+	/**
+	 * Doubles the number of slots and rehashes every change.
+	 *
+	 * @since 1.1
+	 */
+	private void grow() {
+		int[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		this.allocate( oldKeys.length << 1 );
+
+		for( int slot = 0; slot < oldKeys.length; ++slot ) {
+			if( oldKeys[ slot ] != EMPTY ) {
+				int newSlot = this.slotOf( oldKeys[ slot ] );
+				this.keys[ newSlot ] = oldKeys[ slot ];
+				this.values[ newSlot ] = oldValues[ slot ];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package chasemh.steg;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * PixelSchedule Class. A keyed, pseudorandom ordering of every pixel index in an image.
+ * Both sides of a conversation that share a secret and a key image derive the same schedule, so the pixels a
+ * message was written to can be found again without comparing the rest of the image.
+ *
+ * The ordering is a permutation built from a balanced Feistel network over the smallest even number of bits
+ * that covers the image, with cycle walking to stay inside it. It takes no memory beyond its round keys and
+ * each position costs a handful of multiplications.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class PixelSchedule {
+
+	/**
+	 * The number of Feistel rounds applied to each position.
+	 */
+	private static final int ROUNDS = 6;
+
+	/**
+	 * The number of pixels in the image.
+	 */
+	private final int size;
+
+	/**
+	 * The number of bits in each half of a Feistel block.
+	 */
+	private final int halfBits;
+
+	/**
+	 * Mask selecting one half of a Feistel block.
+	 */
+	private final long halfMask;
+
+	/**
+	 * The key of each Feistel round.
+	 */
+	private final long[] roundKeys = new long[ ROUNDS ];
+
+	/**
+	 * Creates the schedule for a shared secret and key image.
+	 *
+	 * @param secret The secret shared by both sides
+	 * @param keyFingerprint The fingerprint of the key image
+	 * @param size The number of pixels in the key image
+	 *
+	 * @since 1.1
+	 */
+	PixelSchedule( String secret, long keyFingerprint, int size ) {
+		this( deriveSeed( secret, keyFingerprint ), size );
+	}
+
+	/**
+	 * Creates the schedule for a seed.
+	 *
+	 * @param seed The seed of the schedule
+	 * @param size The number of pixels in the image
+	 *
+	 * @since 1.1
+	 */
+	PixelSchedule( long seed, int size ) {
+		this.size = size;
+
+		int bits = Math.max( 2, 64 - Long.numberOfLeadingZeros( Math.max( 1, size - 1 ) ) );
+		this.halfBits = ( bits + 1 ) >>> 1;
+		this.halfMask = ( 1L << this.halfBits ) - 1;
+
+		long state = seed;
+		for( int round = 0; round < ROUNDS; ++round ) {
+			state += 0x9E3779B97F4A7C15L;
+			this.roundKeys[ round ] = mix( state );
+		}
+	}
+
+	/**
+	 * Derives the seed of a schedule from a shared secret and the fingerprint of the key image, so the same secret
+	 * gives unrelated schedules on different keys.
+	 *
+	 * @param secret The secret shared by both sides
+	 * @param keyFingerprint The fingerprint of the key image
+	 * @return The seed of the schedule
+	 *
+	 * @since 1.1
+	 */
+	static long deriveSeed( String secret, long keyFingerprint ) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			digest.update( secret.getBytes( StandardCharsets.UTF_8 ) );
+			for( int shift = 56; shift >= 0; shift -= 8 ) {
+				digest.update( (byte)( keyFingerprint >>> shift ) );
+			}
+
+			byte[] hash = digest.digest();
+			long seed = 0;
+			for( int i = 0; i < 8; ++i ) {
+				seed = ( seed << 8 ) | ( hash[ i ] & 0xFF );
+			}
+			return seed;
+		}
+		catch( NoSuchAlgorithmException e ) {
+			// Every Java platform is required to provide SHA-256
+			throw new IllegalStateException( e );
+		}
+	}
+
+	/**
+	 * Scrambles a 64 bit value (the SplitMix64 finaliser).
+	 *
+	 * @param z The value to scramble
+	 * @return The scrambled value
+	 *
+	 * @since 1.1
+	 */
+	private static long mix( long z ) {
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+
+	/**
+	 * Gets the number of positions in the schedule, which is the number of pixels in the image.
+	 *
+	 * @return The number of positions in the schedule.
+	 *
+	 * @since 1.1
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the pixel index at the given position of the schedule. Every pixel index appears at exactly one position.
+	 *
+	 * @param position The position in the schedule, from 0 to size - 1
+	 * @return The pixel index at that position
+	 *
+	 * @since 1.1
+	 */
+	int pixelAt( int position ) {
+		long value = position;
+		do {
+			value = this.permute( value );
+		} while( value >= this.size );
+		return (int)value;
+	}
+
+	/**
+	 * Applies the Feistel network to a block.
+	 *
+	 * @param block The block to permute, less than 2 ^ ( 2 * halfBits )
+	 * @return The permuted block
+	 *
+	 * @since 1.1
+	 */
+	private long permute( long block ) {
+		long left = block >>> this.halfBits;
+		long right = block & this.halfMask;
+
+		for( int round = 0; round < ROUNDS; ++round ) {
+			long next = left ^ ( mix( right ^ this.roundKeys[ round ] ) & this.halfMask );
+			left = right;
+			right = next;
+		}
+
+		return ( left << this.halfBits ) | right;
+	}
+
+}
@@ -0,0 +1,332 @@
+package chasemh.steg;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * PixelStore Class. A packed, primitive representation of an image's pixels used internally by the Steg class.
+ * Pixels are stored as 8-bit ARGB components packed into a single int, in row major order. The index of the
+ * pixel at (x, y) is y * width + x, so coordinates are derived from the index rather than stored.
+ *
+ * A store is backed either by an int array or by a ByteBuffer holding four bytes per pixel, such as a direct
+ * buffer or a memory mapped file. Buffer backed stores can be compared two pixels at a time.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public class PixelStore {
+
+	/**
+	 * The width of the image in pixels.
+	 */
+	private final int width;
+
+	/**
+	 * The height of the image in pixels.
+	 */
+	private final int height;
+
+	/**
+	 * The packed ARGB value of every pixel in the image, indexed by y * width + x, or null if the store is buffer backed.
+	 */
+	private final int[] argb;
+
+	/**
+	 * The bytes of every pixel in the image, or null if the store is array backed.
+	 */
+	private final ByteBuffer bytes;
+
+	/**
+	 * The packed ARGB value of every pixel in the image viewed from the bytes, or null if the store is array backed.
+	 */
+	private final IntBuffer ints;
+
+	/**
+	 * Creates a new PixelStore of the given dimensions with every pixel set to zero.
+	 *
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 *
+	 * @since 1.1
+	 */
+	public PixelStore( int width, int height ) {
+		this( width, height, new int[ checkedSize( width, height ) ] );
+	}
+
+	/**
+	 * Creates a new PixelStore of the given dimensions backed by the given array of packed ARGB values.
+	 * The array is used directly, not copied.
+	 *
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 * @param argb The packed ARGB values of the pixels, indexed by y * width + x
+	 * @throws IllegalArgumentException Thrown when the array length does not match the given dimensions
+	 *
+	 * @since 1.1
+	 */
+	public PixelStore( int width, int height, int[] argb ) {
+		if( argb.length != checkedSize( width, height ) ) {
+			throw new IllegalArgumentException( "Pixel array length " + argb.length + " does not match a " + width + "x" + height + " image" );
+		}
+
+		this.width = width;
+		this.height = height;
+		this.argb = argb;
+		this.bytes = null;
+		this.ints = null;
+	}
+
+	/**
+	 * Creates a new PixelStore of the given dimensions backed by a buffer of pixels. Each pixel is an ARGB int stored
+	 * in four bytes in the buffer's byte order, starting at the buffer's position. The buffer's content is used directly,
+	 * not copied, and a read only buffer gives a read only store.
+	 *
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 * @param pixels The bytes of the pixels, indexed by y * width + x
+	 * @throws IllegalArgumentException Thrown when the buffer holds fewer pixels than the given dimensions
+	 *
+	 * @since 1.1
+	 */
+	public PixelStore( int width, int height, ByteBuffer pixels ) {
+		int size = checkedSize( width, height );
+		if( pixels.remaining() / 4 < size ) {
+			throw new IllegalArgumentException( "Pixel buffer of " + pixels.remaining() + " bytes is too small for a " + width + "x" + height + " image" );
+		}
+
+		ByteBuffer view = pixels.slice().order( pixels.order() );
+		view.limit( size * 4 );
+
+		this.width = width;
+		this.height = height;
+		this.argb = null;
+		this.bytes = view;
+		this.ints = view.asIntBuffer();
+	}
+
+	/**
+	 * Validates image dimensions and returns the number of pixels they describe.
+	 *
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 * @return The number of pixels in an image with the given dimensions
+	 * @throws IllegalArgumentException Thrown when the dimensions are negative or describe too many pixels
+	 *
+	 * @since 1.1
+	 */
+	private static int checkedSize( int width, int height ) {
+		long size = (long)width * height;
+		if( width < 0 || height < 0 || size > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( "Invalid image dimensions " + width + "x" + height );
+		}
+		return (int)size;
+	}
+
+	/**
+	 * Gets the width of the image.
+	 *
+	 * @return The width of the image in pixels.
+	 *
+	 * @since 1.1
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the height of the image.
+	 *
+	 * @return The height of the image in pixels.
+	 *
+	 * @since 1.1
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets the number of pixels in the image.
+	 *
+	 * @return The number of pixels in the image.
+	 *
+	 * @since 1.1
+	 */
+	public int size() {
+		return this.width * this.height;
+	}
+
+	/**
+	 * Gets the index of the pixel at the given coordinates.
+	 *
+	 * @param x The X coordinate of the pixel
+	 * @param y The Y coordinate of the pixel
+	 * @return The index of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public int indexOf( int x, int y ) {
+		return y * this.width + x;
+	}
+
+	/**
+	 * Gets the X coordinate of the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @return The X coordinate of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public int getX( int index ) {
+		return index % this.width;
+	}
+
+	/**
+	 * Gets the Y coordinate of the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @return The Y coordinate of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public int getY( int index ) {
+		return index / this.width;
+	}
+
+	/**
+	 * Gets the packed ARGB value of the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @return The packed ARGB value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public int getRGB( int index ) {
+		return this.argb != null ? this.argb[ index ] : this.ints.get( index );
+	}
+
+	/**
+	 * Sets the packed ARGB value of the pixel at the given index.
+	 *
+	 * @param index The index of the pixel
+	 * @param rgb The new packed ARGB value of the pixel
+	 *
+	 * @since 1.1
+	 */
+	public void setRGB( int index, int rgb ) {
+		if( this.argb != null ) {
+			this.argb[ index ] = rgb;
+		}
+		else {
+			this.ints.put( index, rgb );
+		}
+	}
+
+	/**
+	 * Gets a CipherPixel view of the pixel at the given index. Changes made through the view are written to this store.
+	 *
+	 * @param index The index of the pixel
+	 * @return A CipherPixel backed by this store
+	 *
+	 * @since 1.1
+	 */
+	public CipherPixel getPixel( int index ) {
+		return new CipherPixel( this, index );
+	}
+
+	/**
+	 * Gets the array backing this store. Used for bulk operations within the package.
+	 *
+	 * @return The packed ARGB values of the pixels, indexed by y * width + x, or null if the store is buffer backed
+	 *
+	 * @since 1.1
+	 */
+	int[] array() {
+		return this.argb;
+	}
+
+	/**
+	 * Gets a view of the pixels of a buffer backed store as longs, each holding two neighbouring pixels in the buffer's
+	 * byte order. Pixel 2 * i is in the low half of long i for little endian buffers and in the high half for big endian ones.
+	 *
+	 * @return The pixels viewed as longs, or null if the store is array backed
+	 *
+	 * @since 1.1
+	 */
+	LongBuffer pixelPairs() {
+		return this.bytes != null ? this.bytes.duplicate().order( this.bytes.order() ).asLongBuffer() : null;
+	}
+
+	/**
+	 * Gets the number of bytes of heap used by the pixels. Pixels held in a direct or mapped buffer are not counted.
+	 *
+	 * @return The size of the pixels in bytes
+	 *
+	 * @since 1.1
+	 */
+	long memoryBytes() {
+		return this.bytes != null && this.bytes.isDirect() ? 0 : 4L * this.size();
+	}
+
+	/**
+	 * Gets the byte order of the pixels of a buffer backed store.
+	 *
+	 * @return The byte order of the pixels, or null if the store is array backed
+	 *
+	 * @since 1.1
+	 */
+	ByteOrder byteOrder() {
+		return this.bytes != null ? this.bytes.order() : null;
+	}
+
+	/**
+	 * Copies the packed ARGB values of every pixel into an array.
+	 *
+	 * @param dest The array to copy into, indexed by y * width + x
+	 *
+	 * @since 1.1
+	 */
+	public void copyTo( int[] dest ) {
+		if( this.argb != null ) {
+			System.arraycopy( this.argb, 0, dest, 0, this.argb.length );
+		}
+		else {
+			this.ints.duplicate().get( dest, 0, this.size() );
+		}
+	}
+
+	/**
+	 * Calculates a 64 bit fingerprint of the image from its dimensions and the color of every pixel.
+	 * Alpha is ignored, like it is during encryption and decryption.
+	 *
+	 * @return The fingerprint of the image
+	 *
+	 * @since 1.1
+	 */
+	public long fingerprint() {
+		long hash = ( (long)this.width << 32 ) | this.height;
+		for( int i = 0, size = this.size(); i < size; ++i ) {
+			hash = ( hash ^ ( this.getRGB( i ) & PixelCodec.RGB_MASK ) ) * 0x100000001B3L;
+		}
+
+		// Spread the last pixels over every bit
+		hash = ( hash ^ ( hash >>> 33 ) ) * 0xFF51AFD7ED558CCDL;
+		return hash ^ ( hash >>> 33 );
+	}
+
+	/**
+	 * Creates an array backed copy of this store that does not share its pixels.
+	 *
+	 * @return A copy of this PixelStore
+	 *
+	 * @since 1.1
+	 */
+	public PixelStore copy() {
+		PixelStore copy = new PixelStore( this.width, this.height );
+		this.copyTo( copy.argb );
+		return copy;
+	}
+
+}
@@ -0,0 +1,753 @@
+package chasemh.steg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * PngDecoder Class. Decodes 8-bit gray, RGB, RGBA and palette PNG images straight into a PixelStore.
+ *
+ * Image data is inflated and unfiltered one scanline at a time into the store's array, so the only image sized
+ * allocation is the store itself. Pixels come out exactly as RasterConverter gives them for the image ImageIO reads,
+ * so either path produces the same store. PNGs this class does not handle (other bit depths, gray with alpha,
+ * interlacing, embedded color profiles and transparency in gray or RGB images) are reported so the caller can
+ * fall back to ImageIO.
+ *
+ * Images written by PngEncoder in independent bands carry a stBD chunk giving the offset of each band in the
+ * zlib stream. Each band starts after a full flush with a scanline that does not refer to the one above, so the
+ * bands of these images are inflated and unfiltered in parallel. Any other image is decoded in one pass.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class PngDecoder {
+
+	/**
+	 * The eight bytes every PNG file starts with.
+	 */
+	static final byte[] SIGNATURE = { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	/**
+	 * Chunk types, as the big endian int of their four letter names.
+	 */
+	static final int IHDR = 0x49484452, PLTE = 0x504C5445, TRNS = 0x74524E53, ICCP = 0x69434350, IDAT = 0x49444154, IEND = 0x49454E44;
+
+	/**
+	 * The private chunk type holding the band index of images written in independent bands. It must not be copied
+	 * into edited images, since edits move the bands.
+	 */
+	static final int STBD = 0x73744244;
+
+	/**
+	 * Color types of the IHDR chunk.
+	 */
+	static final int COLOR_GRAY = 0, COLOR_RGB = 2, COLOR_PALETTE = 3, COLOR_GRAY_ALPHA = 4, COLOR_RGBA = 6;
+
+	/**
+	 * Scanline filter types.
+	 */
+	static final int FILTER_NONE = 0, FILTER_SUB = 1, FILTER_UP = 2, FILTER_AVERAGE = 3, FILTER_PAETH = 4;
+
+	/**
+	 * The size of the buffer compressed image data is inflated through.
+	 */
+	private static final int INFLATE_BUFFER = 1 << 16;
+
+	/**
+	 * The stream the PNG is read from.
+	 */
+	private final DataInputStream in;
+
+	/**
+	 * The pool that inflates the bands of images with a band index.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * The type of the chunk being read.
+	 */
+	private int chunkType;
+
+	/**
+	 * The number of data bytes of the chunk being read that are still to be read.
+	 */
+	private int chunkRemaining;
+
+	/**
+	 * The width and height of the image in pixels.
+	 */
+	private int width, height;
+
+	/**
+	 * The color type of the image.
+	 */
+	private int colorType;
+
+	/**
+	 * The red, green and blue of each palette entry. Entries the PLTE chunk leaves out are black.
+	 */
+	private final int[] paletteRGB = new int[ 256 ];
+
+	/**
+	 * The alpha of each palette entry. Entries the tRNS chunk leaves out are opaque.
+	 */
+	private final int[] paletteAlpha = new int[ 256 ];
+
+	/**
+	 * True once the PLTE chunk has been read.
+	 */
+	private boolean hasPalette;
+
+	/**
+	 * The drawn value of each palette entry, for palette images.
+	 */
+	private int[] palette;
+
+	/**
+	 * The number of rows in each band given by the stBD chunk.
+	 */
+	private int bandRows;
+
+	/**
+	 * The offset of each band in the zlib stream given by the stBD chunk, or null if the image has no band index.
+	 */
+	private int[] bandOffsets;
+
+	/**
+	 * Creates a decoder reading from a stream.
+	 *
+	 * @param in The stream to read the PNG from
+	 * @param pool The pool that inflates the bands of images with a band index
+	 *
+	 * @since 1.1
+	 */
+	private PngDecoder( InputStream in, ForkJoinPool pool ) {
+		this.in = new DataInputStream( in );
+		this.pool = pool;
+		Arrays.fill( this.paletteAlpha, 0xFF );
+	}
+
+	/**
+	 * Decodes a PNG image.
+	 *
+	 * @param in The stream to read the PNG from, positioned at its start
+	 * @return The pixels of the image, or null if the stream is not a PNG this class can decode
+	 * @throws IOException Thrown when the stream cannot be read or is a damaged PNG
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore decode( InputStream in ) throws IOException {
+		return decode( in, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Decodes a PNG image, inflating the bands of images with a band index on the given pool.
+	 *
+	 * @param in The stream to read the PNG from, positioned at its start
+	 * @param pool The pool that inflates bands in parallel
+	 * @return The pixels of the image, or null if the stream is not a PNG this class can decode
+	 * @throws IOException Thrown when the stream cannot be read or is a damaged PNG
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore decode( InputStream in, ForkJoinPool pool ) throws IOException {
+		PngDecoder decoder = new PngDecoder( in, pool );
+		return decoder.readSignature() ? decoder.readImage() : null;
+	}
+
+	/**
+	 * Reads the PNG signature.
+	 *
+	 * @return True if the stream starts with the PNG signature
+	 * @throws IOException Thrown when the stream cannot be read
+	 *
+	 * @since 1.1
+	 */
+	private boolean readSignature() throws IOException {
+		for( byte expected : SIGNATURE ) {
+			int b = this.in.read();
+			if( b != ( expected & 0xFF ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the chunks of the image up to and including its image data.
+	 *
+	 * @return The pixels of the image, or null if it uses a layout this class does not decode
+	 * @throws IOException Thrown when the stream cannot be read or is a damaged PNG
+	 *
+	 * @since 1.1
+	 */
+	private PixelStore readImage() throws IOException {
+		this.nextChunk();
+		if( this.chunkType != IHDR || this.chunkRemaining != 13 ) {
+			throw new IOException( "PNG does not start with an IHDR chunk" );
+		}
+
+		this.width = this.in.readInt();
+		this.height = this.in.readInt();
+		int bitDepth = this.in.readUnsignedByte();
+		this.colorType = this.in.readUnsignedByte();
+		int compression = this.in.readUnsignedByte();
+		int filter = this.in.readUnsignedByte();
+		int interlace = this.in.readUnsignedByte();
+		this.chunkRemaining = 0;
+
+		if( this.width <= 0 || this.height <= 0 || compression != 0 || filter != 0 ) {
+			throw new IOException( "Invalid PNG header" );
+		}
+		if( bitDepth != 8 || interlace != 0 || this.colorType == COLOR_GRAY_ALPHA || channels( this.colorType ) == 0 ) {
+			return null;
+		}
+		if( (long)this.width * this.height > Integer.MAX_VALUE || (long)this.width * channels( this.colorType ) + 1 > Integer.MAX_VALUE ) {
+			throw new IOException( "PNG of " + this.width + "x" + this.height + " pixels is too large" );
+		}
+
+		for( ;; ) {
+			this.nextChunk();
+			switch( this.chunkType ) {
+				case PLTE:
+					this.readPalette();
+					break;
+				case TRNS:
+					if( this.colorType != COLOR_PALETTE ) {
+						// A transparent color key, which ImageIO may or may not turn into an alpha channel
+						return null;
+					}
+					this.readPaletteAlpha();
+					break;
+				case ICCP:
+					// Embedded color profiles may change the colors ImageIO gives
+					return null;
+				case STBD:
+					this.readBandIndex();
+					break;
+				case IDAT:
+					if( this.colorType == COLOR_PALETTE && !this.hasPalette ) {
+						throw new IOException( "Palette PNG has no PLTE chunk" );
+					}
+					return this.readImageData();
+				case IEND:
+					throw new IOException( "PNG has no image data" );
+				default:
+					// Ancillary chunks do not change the pixels
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes in each pixel of an 8-bit image of the given color type.
+	 *
+	 * @param colorType The color type of the image
+	 * @return The number of bytes per pixel, or 0 for an unknown color type
+	 *
+	 * @since 1.1
+	 */
+	static int channels( int colorType ) {
+		switch( colorType ) {
+			case COLOR_GRAY:
+			case COLOR_PALETTE:
+				return 1;
+			case COLOR_GRAY_ALPHA:
+				return 2;
+			case COLOR_RGB:
+				return 3;
+			case COLOR_RGBA:
+				return 4;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Skips the rest of the current chunk and its CRC, then reads the header of the next chunk.
+	 *
+	 * @throws IOException Thrown when the stream cannot be read
+	 *
+	 * @since 1.1
+	 */
+	private void nextChunk() throws IOException {
+		if( this.chunkType != 0 ) {
+			this.skip( this.chunkRemaining + 4L );
+		}
+
+		int length = this.in.readInt();
+		if( length < 0 ) {
+			throw new IOException( "Invalid PNG chunk length" );
+		}
+		this.chunkRemaining = length;
+		this.chunkType = this.in.readInt();
+	}
+
+	/**
+	 * Skips bytes of the stream.
+	 *
+	 * @param count The number of bytes to skip
+	 * @throws IOException Thrown when the stream ends first
+	 *
+	 * @since 1.1
+	 */
+	private void skip( long count ) throws IOException {
+		while( count > 0 ) {
+			long skipped = this.in.skip( count );
+			if( skipped <= 0 ) {
+				if( this.in.read() < 0 ) {
+					throw new EOFException( "PNG ends part way through a chunk" );
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * Reads the PLTE chunk. Entries beyond the 256 an 8-bit image can use are ignored.
+	 *
+	 * @throws IOException Thrown when the stream cannot be read or the chunk is damaged
+	 *
+	 * @since 1.1
+	 */
+	private void readPalette() throws IOException {
+		if( this.chunkRemaining % 3 != 0 ) {
+			throw new IOException( "Invalid PNG palette length" );
+		}
+
+		int entries = Math.min( this.chunkRemaining / 3, this.paletteRGB.length );
+		for( int i = 0; i < entries; ++i ) {
+			this.paletteRGB[ i ] = this.in.readUnsignedByte() << 16 | this.in.readUnsignedByte() << 8 | this.in.readUnsignedByte();
+		}
+		this.chunkRemaining -= entries * 3;
+		this.hasPalette = true;
+	}
+
+	/**
+	 * Reads the tRNS chunk of a palette image, which gives the alpha of the first palette entries.
+	 *
+	 * @throws IOException Thrown when the stream cannot be read
+	 *
+	 * @since 1.1
+	 */
+	private void readPaletteAlpha() throws IOException {
+		int entries = Math.min( this.chunkRemaining, this.paletteAlpha.length );
+		for( int i = 0; i < entries; ++i ) {
+			this.paletteAlpha[ i ] = this.in.readUnsignedByte();
+		}
+		this.chunkRemaining -= entries;
+	}
+
+	/**
+	 * Reads the stBD chunk, which gives the number of rows in each band and the offset of each band in the zlib stream.
+	 * An index that does not fit the image is ignored.
+	 *
+	 * @throws IOException Thrown when the stream cannot be read
+	 *
+	 * @since 1.1
+	 */
+	private void readBandIndex() throws IOException {
+		if( this.chunkRemaining < 8 || this.chunkRemaining % 4 != 0 ) {
+			return;
+		}
+
+		int rows = this.in.readInt();
+		int[] offsets = new int[ this.chunkRemaining / 4 - 1 ];
+		for( int i = 0; i < offsets.length; ++i ) {
+			offsets[ i ] = this.in.readInt();
+		}
+		this.chunkRemaining = 0;
+
+		if( rows <= 0 || offsets.length != ( this.height - 1 ) / rows + 1 ) {
+			return;
+		}
+		for( int i = 1; i < offsets.length; ++i ) {
+			if( offsets[ i ] <= offsets[ i - 1 ] ) {
+				return;
+			}
+		}
+		this.bandRows = rows;
+		this.bandOffsets = offsets;
+	}
+
+	/**
+	 * Inflates and unfilters the image data into a new PixelStore, in parallel bands if the image has a band index
+	 * and one scanline at a time otherwise.
+	 *
+	 * @return The pixels of the image
+	 * @throws IOException Thrown when the stream cannot be read or the image data is damaged
+	 *
+	 * @since 1.1
+	 */
+	private PixelStore readImageData() throws IOException {
+		if( this.colorType == COLOR_PALETTE ) {
+			this.palette = new int[ this.paletteRGB.length ];
+			for( int i = 0; i < this.palette.length; ++i ) {
+				int rgb = this.paletteRGB[ i ];
+				this.palette[ i ] = RasterConverter.drawn( this.paletteAlpha[ i ], rgb >> 16, rgb >> 8 & 0xFF, rgb & 0xFF );
+			}
+		}
+
+		PixelStore store = new PixelStore( this.width, this.height );
+		if( this.bandOffsets == null || this.bandOffsets.length < 2 || this.pool.getParallelism() <= 1 ) {
+			this.inflateRows( new ImageDataStream(), store.array() );
+			return store;
+		}
+
+		// Bands are found by their offset in the whole zlib stream, so gather it first
+		ByteArrayOutputStream gathered = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ INFLATE_BUFFER ];
+		InputStream idat = new ImageDataStream();
+		for( int count; ( count = idat.read( buffer ) ) >= 0; ) {
+			gathered.write( buffer, 0, count );
+		}
+		byte[] zlib = gathered.toByteArray();
+
+		if( !this.inflateBands( zlib, store.array() ) ) {
+			// The index does not describe this image data, so decode it in one pass
+			this.inflateRows( new ByteArrayInputStream( zlib ), store.array() );
+		}
+		return store;
+	}
+
+	/**
+	 * Inflates and unfilters every scanline of a zlib stream in order.
+	 *
+	 * @param zlib The zlib stream of the image data
+	 * @param out The array to write the pixels to
+	 * @throws IOException Thrown when the stream cannot be read or the image data is damaged
+	 *
+	 * @since 1.1
+	 */
+	private void inflateRows( InputStream zlib, int[] out ) throws IOException {
+		int rowBytes = this.width * channels( this.colorType );
+		byte[] previous = new byte[ rowBytes ];
+		byte[] current = new byte[ rowBytes ];
+
+		Inflater inflater = new Inflater();
+		try {
+			DataInputStream data = new DataInputStream( new InflaterInputStream( zlib, inflater, INFLATE_BUFFER ) );
+			for( int y = 0, i = 0; y < this.height; ++y, i += this.width ) {
+				int filter = data.readUnsignedByte();
+				data.readFully( current );
+				unfilter( filter, current, previous, channels( this.colorType ) );
+				this.convertRow( current, out, i );
+
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		}
+		catch( EOFException e ) {
+			throw new IOException( "PNG image data ends early", e );
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Inflates and unfilters the bands of the image data in parallel, as given by the band index.
+	 *
+	 * @param zlib The zlib stream of the image data
+	 * @param out The array to write the pixels to
+	 * @return True if every band was decoded, false if the index does not describe the image data
+	 *
+	 * @since 1.1
+	 */
+	private boolean inflateBands( byte[] zlib, int[] out ) {
+		int bands = this.bandOffsets.length;
+		if( this.bandOffsets[ 0 ] != 2 || this.bandOffsets[ bands - 1 ] >= zlib.length ) {
+			return false;
+		}
+
+		List<BandTask> tasks = new ArrayList<>( bands );
+		for( int band = 0; band < bands; ++band ) {
+			int end = band + 1 < bands ? this.bandOffsets[ band + 1 ] : zlib.length;
+			BandTask task = new BandTask( zlib, this.bandOffsets[ band ], end, band * this.bandRows, out );
+			this.pool.execute( task );
+			tasks.add( task );
+		}
+
+		boolean decoded = true;
+		for( BandTask task : tasks ) {
+			try {
+				task.join();
+			}
+			catch( UncheckedIOException e ) {
+				decoded = false;
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * Inflates and unfilters one band of the image data. The band must start with a scanline filtered without
+	 * reference to the one above.
+	 *
+	 * @param zlib The zlib stream of the image data
+	 * @param start The offset of the band in the zlib stream
+	 * @param end The offset after the end of the band's data
+	 * @param firstRow The first row of the band
+	 * @param out The array to write the pixels to
+	 * @throws IOException Thrown when the band's data is damaged or does not hold the whole band
+	 *
+	 * @since 1.1
+	 */
+	private void inflateBand( byte[] zlib, int start, int end, int firstRow, int[] out ) throws IOException {
+		int bytesPerPixel = channels( this.colorType );
+		int rowBytes = this.width * bytesPerPixel;
+		byte[] previous = new byte[ rowBytes ];
+		byte[] current = new byte[ rowBytes ];
+		byte[] filter = new byte[ 1 ];
+		int lastRow = Math.min( this.height, firstRow + this.bandRows );
+
+		Inflater inflater = new Inflater( true );
+		try {
+			inflater.setInput( zlib, start, end - start );
+			for( int y = firstRow, i = firstRow * this.width; y < lastRow; ++y, i += this.width ) {
+				inflateFully( inflater, filter );
+				inflateFully( inflater, current );
+				if( y == firstRow && firstRow > 0 && filter[ 0 ] != FILTER_NONE && filter[ 0 ] != FILTER_SUB ) {
+					throw new IOException( "PNG band starts with a scanline that refers to the one above" );
+				}
+				unfilter( filter[ 0 ] & 0xFF, current, previous, bytesPerPixel );
+				this.convertRow( current, out, i );
+
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Inflates exactly enough data to fill an array.
+	 *
+	 * @param inflater The inflater holding the compressed data
+	 * @param b The array to fill
+	 * @throws IOException Thrown when the data is damaged or runs out first
+	 *
+	 * @since 1.1
+	 */
+	private static void inflateFully( Inflater inflater, byte[] b ) throws IOException {
+		try {
+			for( int filled = 0; filled < b.length; ) {
+				int count = inflater.inflate( b, filled, b.length - filled );
+				if( count == 0 && ( inflater.finished() || inflater.needsInput() || inflater.needsDictionary() ) ) {
+					throw new EOFException( "PNG band ends early" );
+				}
+				filled += count;
+			}
+		}
+		catch( DataFormatException e ) {
+			throw new IOException( "Invalid PNG band data", e );
+		}
+	}
+
+	/**
+	 * Reverses the filter applied to a scanline.
+	 *
+	 * @param filter The filter type of the scanline
+	 * @param current The filtered scanline, unfiltered in place
+	 * @param previous The unfiltered scanline above, all zero for the first scanline
+	 * @param bytesPerPixel The number of bytes in each pixel
+	 * @throws IOException Thrown when the filter type is unknown
+	 *
+	 * @since 1.1
+	 */
+	static void unfilter( int filter, byte[] current, byte[] previous, int bytesPerPixel ) throws IOException {
+		int length = current.length;
+		switch( filter ) {
+			case FILTER_NONE:
+				break;
+			case FILTER_SUB:
+				for( int i = bytesPerPixel; i < length; ++i ) {
+					current[ i ] += current[ i - bytesPerPixel ];
+				}
+				break;
+			case FILTER_UP:
+				for( int i = 0; i < length; ++i ) {
+					current[ i ] += previous[ i ];
+				}
+				break;
+			case FILTER_AVERAGE:
+				for( int i = 0; i < bytesPerPixel; ++i ) {
+					current[ i ] += ( previous[ i ] & 0xFF ) >>> 1;
+				}
+				for( int i = bytesPerPixel; i < length; ++i ) {
+					current[ i ] += ( ( current[ i - bytesPerPixel ] & 0xFF ) + ( previous[ i ] & 0xFF ) ) >>> 1;
+				}
+				break;
+			case FILTER_PAETH:
+				for( int i = 0; i < bytesPerPixel; ++i ) {
+					current[ i ] += previous[ i ];
+				}
+				for( int i = bytesPerPixel; i < length; ++i ) {
+					current[ i ] += paeth( current[ i - bytesPerPixel ] & 0xFF, previous[ i ] & 0xFF, previous[ i - bytesPerPixel ] & 0xFF );
+				}
+				break;
+			default:
+				throw new IOException( "Unknown PNG filter type " + filter );
+		}
+	}
+
+	/**
+	 * Predicts a byte from its neighbours with the Paeth predictor.
+	 *
+	 * @param left The byte to the left
+	 * @param above The byte above
+	 * @param aboveLeft The byte above and to the left
+	 * @return Whichever neighbour is closest to left + above - aboveLeft
+	 *
+	 * @since 1.1
+	 */
+	static int paeth( int left, int above, int aboveLeft ) {
+		int p = left + above - aboveLeft;
+		int pLeft = Math.abs( p - left );
+		int pAbove = Math.abs( p - above );
+		int pAboveLeft = Math.abs( p - aboveLeft );
+		if( pLeft <= pAbove && pLeft <= pAboveLeft ) {
+			return left;
+		}
+		return pAbove <= pAboveLeft ? above : aboveLeft;
+	}
+
+	/**
+	 * Packs an unfiltered scanline into ARGB pixels.
+	 *
+	 * @param row The unfiltered scanline
+	 * @param out The array to write the pixels to
+	 * @param offset The index of the first pixel of the scanline in out
+	 *
+	 * @since 1.1
+	 */
+	private void convertRow( byte[] row, int[] out, int offset ) {
+		int[] palette = this.palette;
+		int width = this.width;
+		switch( this.colorType ) {
+			case COLOR_GRAY:
+				for( int x = 0; x < width; ++x ) {
+					out[ offset + x ] = PixelCodec.ALPHA_MASK | ( row[ x ] & 0xFF ) * 0x010101;
+				}
+				break;
+			case COLOR_PALETTE:
+				for( int x = 0; x < width; ++x ) {
+					out[ offset + x ] = palette[ row[ x ] & 0xFF ];
+				}
+				break;
+			case COLOR_RGB:
+				for( int x = 0, p = 0; x < width; ++x, p += 3 ) {
+					out[ offset + x ] = PixelCodec.ALPHA_MASK | ( row[ p ] & 0xFF ) << 16 | ( row[ p + 1 ] & 0xFF ) << 8 | row[ p + 2 ] & 0xFF;
+				}
+				break;
+			default:
+				for( int x = 0, p = 0; x < width; ++x, p += 4 ) {
+					out[ offset + x ] = RasterConverter.drawn( row[ p + 3 ] & 0xFF, row[ p ] & 0xFF, row[ p + 1 ] & 0xFF, row[ p + 2 ] & 0xFF );
+				}
+				break;
+		}
+	}
+
+	/**
+	 * BandTask Class. Decodes one band of an image with a band index.
+	 *
+	 * @since 1.1
+	 */
+	private class BandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] zlib;
+		private final int start;
+		private final int end;
+		private final int firstRow;
+		private final int[] out;
+
+		/**
+		 * Creates a task that decodes the band whose data runs from start to end of the zlib stream.
+		 *
+		 * @param zlib The zlib stream of the image data
+		 * @param start The offset of the band in the zlib stream
+		 * @param end The offset after the end of the band's data
+		 * @param firstRow The first row of the band
+		 * @param out The array to write the pixels to
+		 *
+		 * @since 1.1
+		 */
+		BandTask( byte[] zlib, int start, int end, int firstRow, int[] out ) {
+			this.zlib = zlib;
+			this.start = start;
+			this.end = end;
+			this.firstRow = firstRow;
+			this.out = out;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				inflateBand( this.zlib, this.start, this.end, this.firstRow, this.out );
+			}
+			catch( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		}
+
+	}
+
+	/**
+	 * ImageDataStream Class. Reads the data of consecutive IDAT chunks as one stream.
+	 *
+	 * @since 1.1
+	 */
+	private class ImageDataStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[ 1 ];
+			return this.read( one, 0, 1 ) < 0 ? -1 : one[ 0 ] & 0xFF;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException {
+			if( len == 0 ) {
+				return 0;
+			}
+			while( chunkRemaining == 0 ) {
+				if( chunkType != IDAT ) {
+					return -1;
+				}
+				nextChunk();
+			}
+			if( chunkType != IDAT ) {
+				return -1;
+			}
+
+			int count = in.read( b, off, Math.min( len, chunkRemaining ) );
+			if( count < 0 ) {
+				throw new EOFException( "PNG ends part way through an IDAT chunk" );
+			}
+			chunkRemaining -= count;
+			return count;
+		}
+
+	}
+
+}
@@ -0,0 +1,1010 @@
+package chasemh.steg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PngEncoder Class. Writes a PixelStore as a PNG image, reading pixels straight from the store.
+ *
+ * The deflate level and strategy and the scanline filter can be chosen to trade file size against encoding time.
+ * Opaque images are written as 8-bit RGB and any others as 8-bit RGBA. Only the IHDR, IDAT and IEND chunks are
+ * written.
+ *
+ * Large images are deflated in bands of rows on a fork/join pool, the way pigz compresses files. Each band is deflated
+ * on its own and ends with a flush, so the bands join into a single zlib stream that any PNG reader can decode.
+ * By default bands are independent: each starts after a full flush with a scanline filtered without reference to the
+ * one above, and a stBD chunk records where each band starts so PngDecoder can inflate them in parallel too.
+ * Otherwise each band uses the end of the band before it as a preset dictionary, which compresses slightly better.
+ * Independent bands of an image can be kept in a BandCache, so an image that differs from it in a few pixels is
+ * written by compressing only the bands holding those pixels.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public class PngEncoder {
+
+	/**
+	 * Strategy Enum. The deflate strategies an encoder can use.
+	 *
+	 * @since 1.1
+	 */
+	public enum Strategy {
+
+		/**
+		 * Plain deflate, best for most images.
+		 */
+		DEFAULT( Deflater.DEFAULT_STRATEGY ),
+
+		/**
+		 * Favours Huffman coding over string matching, for filtered data made of small values.
+		 */
+		FILTERED( Deflater.FILTERED ),
+
+		/**
+		 * Huffman coding only, with no string matching. The fastest strategy that still compresses.
+		 */
+		HUFFMAN_ONLY( Deflater.HUFFMAN_ONLY );
+
+		/**
+		 * The Deflater constant for the strategy.
+		 */
+		final int deflaterStrategy;
+
+		Strategy( int deflaterStrategy ) {
+			this.deflaterStrategy = deflaterStrategy;
+		}
+
+	}
+
+	/**
+	 * Filter Enum. The ways an encoder can choose the filter of each scanline.
+	 *
+	 * @since 1.1
+	 */
+	public enum Filter {
+
+		/**
+		 * Every scanline is written unfiltered.
+		 */
+		NONE( PngDecoder.FILTER_NONE ),
+
+		/**
+		 * Every scanline stores each byte's difference from the pixel to its left.
+		 */
+		SUB( PngDecoder.FILTER_SUB ),
+
+		/**
+		 * Every scanline stores each byte's difference from the pixel above.
+		 */
+		UP( PngDecoder.FILTER_UP ),
+
+		/**
+		 * Every scanline stores each byte's difference from its Paeth prediction.
+		 */
+		PAETH( PngDecoder.FILTER_PAETH ),
+
+		/**
+		 * Each scanline uses whichever filter gives the smallest sum of absolute differences.
+		 */
+		ADAPTIVE( -1 );
+
+		/**
+		 * The PNG filter type, or -1 if it is chosen for each scanline.
+		 */
+		final int type;
+
+		Filter( int type ) {
+			this.type = type;
+		}
+
+	}
+
+	/**
+	 * The most data written in one IDAT chunk.
+	 */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * The number of PNG filter types.
+	 */
+	private static final int FILTER_TYPES = 5;
+
+	/**
+	 * The number of bytes in an opaque pixel, which is written as RGB.
+	 */
+	private static final int RGB_BYTES = 3;
+
+	/**
+	 * The number of filtered bytes deflated by each band of a parallel encode.
+	 */
+	static final int BAND_BYTES = 1 << 20;
+
+	/**
+	 * The number of filtered bytes in each band of a BandCache. Enciphered pixels are spread over the whole image,
+	 * so cached bands are kept small to leave most of them untouched by a short message.
+	 */
+	static final int CACHED_BAND_BYTES = 1 << 16;
+
+	/**
+	 * The size of the deflate window, which is the most preset dictionary a band can use.
+	 */
+	static final int DICTIONARY_SIZE = 1 << 15;
+
+	/**
+	 * The modulus of the Adler-32 checksum.
+	 */
+	private static final int ADLER_BASE = 65521;
+
+	/**
+	 * The deflate level, from 0 (stored blocks) to 9, or -1 for the default level.
+	 */
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * The deflate strategy.
+	 */
+	private Strategy strategy = Strategy.DEFAULT;
+
+	/**
+	 * The scanline filter.
+	 */
+	private Filter filter = Filter.ADAPTIVE;
+
+	/**
+	 * The pool that deflates bands of large images in parallel.
+	 */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * True if large images are written in independent bands with a band index.
+	 */
+	private boolean bandIndex = true;
+
+	/**
+	 * Creates a new PngEncoder using the default deflate level and strategy and adaptive filtering.
+	 *
+	 * @since 1.1
+	 */
+	public PngEncoder() {
+	}
+
+	/**
+	 * Gets the deflate level.
+	 *
+	 * @return The deflate level, from 0 to 9, or -1 for the default level
+	 *
+	 * @since 1.1
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+
+	/**
+	 * Sets the deflate level. Level 0 writes stored blocks, level 1 is the fastest and level 9 the smallest.
+	 *
+	 * @param level The deflate level, from 0 to 9, or -1 for the default level
+	 * @throws IllegalArgumentException Thrown when the level is out of range
+	 *
+	 * @since 1.1
+	 */
+	public void setLevel( int level ) {
+		if( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION ) {
+			throw new IllegalArgumentException( "Invalid deflate level " + level );
+		}
+		this.level = level;
+	}
+
+	/**
+	 * Gets the deflate strategy.
+	 *
+	 * @return The deflate strategy
+	 *
+	 * @since 1.1
+	 */
+	public Strategy getStrategy() {
+		return this.strategy;
+	}
+
+	/**
+	 * Sets the deflate strategy.
+	 *
+	 * @param strategy The deflate strategy
+	 *
+	 * @since 1.1
+	 */
+	public void setStrategy( Strategy strategy ) {
+		if( strategy == null ) {
+			throw new IllegalArgumentException( "The strategy must not be null" );
+		}
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Gets the scanline filter.
+	 *
+	 * @return The scanline filter
+	 *
+	 * @since 1.1
+	 */
+	public Filter getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Sets the scanline filter.
+	 *
+	 * @param filter The scanline filter
+	 *
+	 * @since 1.1
+	 */
+	public void setFilter( Filter filter ) {
+		if( filter == null ) {
+			throw new IllegalArgumentException( "The filter must not be null" );
+		}
+		this.filter = filter;
+	}
+
+	/**
+	 * Sets the pool that deflates bands of large images in parallel. A pool with a parallelism of 1 encodes every image
+	 * in a single deflate stream.
+	 *
+	 * @param pool The pool to use, or null to use the common pool
+	 *
+	 * @since 1.1
+	 */
+	public void setPool( ForkJoinPool pool ) {
+		this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Returns true if large images are written in independent bands with a band index.
+	 *
+	 * @return True if band indexes are written
+	 *
+	 * @since 1.1
+	 */
+	public boolean isBandIndex() {
+		return this.bandIndex;
+	}
+
+	/**
+	 * Sets whether large images are written in independent bands with a band index, so they can be decoded in parallel.
+	 * Images are banded whatever the parallelism of the encoder's pool when this is set.
+	 *
+	 * @param bandIndex True to write band indexes, false to chain bands with preset dictionaries
+	 *
+	 * @since 1.1
+	 */
+	public void setBandIndex( boolean bandIndex ) {
+		this.bandIndex = bandIndex;
+	}
+
+	/**
+	 * Writes the pixels of a store as a PNG image.
+	 *
+	 * @param pixels The pixels to write
+	 * @param out The stream to write the PNG to. It is flushed but not closed.
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	public void encode( PixelStore pixels, OutputStream out ) throws IOException {
+		DataOutputStream data = new DataOutputStream( out );
+		int colorType = isOpaque( pixels ) ? PngDecoder.COLOR_RGB : PngDecoder.COLOR_RGBA;
+		int bytesPerPixel = PngDecoder.channels( colorType );
+
+		data.write( PngDecoder.SIGNATURE );
+		writeHeader( data, pixels.getWidth(), pixels.getHeight(), colorType );
+
+		ChunkOutputStream idat = new ChunkOutputStream( data, PngDecoder.IDAT );
+		int bandRows = bandRows( pixels.getWidth(), bytesPerPixel );
+		boolean independent = this.bandIndex;
+		if( pixels.getHeight() > bandRows && ( independent || this.pool.getParallelism() > 1 ) ) {
+			List<Band> bands = this.deflateBands( pixels, bytesPerPixel, bandRows, independent, null );
+			if( independent ) {
+				writeBandIndex( data, bandRows, bands );
+			}
+			writeBands( idat, this.level, bands );
+		}
+		else {
+			this.deflate( pixels, bytesPerPixel, idat );
+		}
+		idat.flushChunk();
+
+		writeChunk( data, PngDecoder.IEND, new byte[ 0 ], 0 );
+		data.flush();
+	}
+
+	/**
+	 * Writes the pixels of a store as a PNG image, reusing the compressed bands of an image it differs from in only
+	 * the given pixels. The image is encoded in full if the cache does not match this encoder and image, if the
+	 * encoder does not write band indexes, or if the image is not opaque.
+	 *
+	 * @param pixels The pixels to write
+	 * @param base The compressed bands of the image the pixels were changed from, or null to encode in full
+	 * @param changes The pixels that differ from the cached image
+	 * @param out The stream to write the PNG to. It is flushed but not closed.
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	void encode( PixelStore pixels, BandCache base, PixelOverlay changes, OutputStream out ) throws IOException {
+		if( base == null || !this.bandIndex || !base.matches( this, pixels.getWidth(), pixels.getHeight() )
+				|| base.bands().size() < 2 || !isOpaque( pixels ) ) {
+			this.encode( pixels, out );
+			return;
+		}
+
+		// Only the bands holding a changed pixel need compressing again
+		int width = pixels.getWidth(), bandRows = base.bandRows();
+		List<Band> reuse = new ArrayList<>( base.bands() );
+		changes.forEachIndex( index -> reuse.set( index / width / bandRows, null ) );
+		List<Band> bands = this.deflateBands( pixels, RGB_BYTES, bandRows, true, reuse );
+
+		DataOutputStream data = new DataOutputStream( out );
+		data.write( PngDecoder.SIGNATURE );
+		writeHeader( data, pixels.getWidth(), pixels.getHeight(), PngDecoder.COLOR_RGB );
+		writeBandIndex( data, bandRows, bands );
+
+		ChunkOutputStream idat = new ChunkOutputStream( data, PngDecoder.IDAT );
+		writeBands( idat, this.level, bands );
+		idat.flushChunk();
+
+		writeChunk( data, PngDecoder.IEND, new byte[ 0 ], 0 );
+		data.flush();
+	}
+
+	/**
+	 * Compresses an image into independent bands with this encoder's settings, written as RGB whatever the alpha of
+	 * its pixels. Opaque images that differ from it in a few pixels can then be encoded from the cache.
+	 *
+	 * @param pixels The pixels to compress
+	 * @return The compressed bands
+	 *
+	 * @since 1.1
+	 */
+	BandCache compressBands( PixelStore pixels ) {
+		int bandRows = cachedBandRows( pixels.getWidth() );
+		List<Band> bands = this.deflateBands( pixels, RGB_BYTES, bandRows, true, null );
+		return new BandCache( pixels.getWidth(), pixels.getHeight(), bandRows, this.level, this.strategy, this.filter, bands );
+	}
+
+	/**
+	 * Returns true if this encoder would reuse the compressed bands of an opaque image of the given size, so that
+	 * compressing the bands ahead of time is worth it. Bands are only reused when band indexes are written and the
+	 * image has more than one band.
+	 *
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @return True if cached bands of the image would be used
+	 *
+	 * @since 1.1
+	 */
+	boolean reusesBands( int width, int height ) {
+		return this.bandIndex && height > cachedBandRows( width );
+	}
+
+	/**
+	 * Gets the number of rows in each cached band of an image, giving bands of about CACHED_BAND_BYTES filtered bytes.
+	 *
+	 * @param width The width of the image
+	 * @return The number of rows in each band
+	 *
+	 * @since 1.1
+	 */
+	private static int cachedBandRows( int width ) {
+		return Math.max( 1, CACHED_BAND_BYTES / ( width * RGB_BYTES + 1 ) );
+	}
+
+	/**
+	 * Gets the number of rows in each band of an image, giving bands of about BAND_BYTES filtered bytes.
+	 *
+	 * @param width The width of the image
+	 * @param bytesPerPixel The number of bytes in each pixel
+	 * @return The number of rows in each band
+	 *
+	 * @since 1.1
+	 */
+	private static int bandRows( int width, int bytesPerPixel ) {
+		return Math.max( 1, BAND_BYTES / ( width * bytesPerPixel + 1 ) );
+	}
+
+	/**
+	 * Filters and deflates every scanline of an image as one zlib stream.
+	 *
+	 * @param pixels The pixels to write
+	 * @param bytesPerPixel The number of bytes in each pixel
+	 * @param idat The stream to write the compressed data to
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	private void deflate( PixelStore pixels, int bytesPerPixel, OutputStream idat ) throws IOException {
+		Deflater deflater = new Deflater( this.level );
+		deflater.setStrategy( this.strategy.deflaterStrategy );
+		try {
+			DeflaterOutputStream compressed = new DeflaterOutputStream( idat, deflater, CHUNK_SIZE );
+			RowFilter rows = new RowFilter( pixels.getWidth() * bytesPerPixel, bytesPerPixel );
+
+			for( int y = 0; y < pixels.getHeight(); ++y ) {
+				rows.nextRow( pixels, y );
+				int type = rows.choose( this.filter, false );
+				compressed.write( type );
+				compressed.write( rows.filtered( type ) );
+			}
+
+			compressed.finish();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Filters and deflates bands of scanlines in parallel.
+	 *
+	 * @param pixels The pixels to write
+	 * @param bytesPerPixel The number of bytes in each pixel
+	 * @param bandRows The number of rows in each band
+	 * @param independent True to make bands that can be decoded without the band before them
+	 * @param reuse Already compressed bands to use in place of compressing, null where a band must be compressed,
+	 * or null to compress every band
+	 * @return The compressed bands in row order
+	 *
+	 * @since 1.1
+	 */
+	private List<Band> deflateBands( PixelStore pixels, int bytesPerPixel, int bandRows, boolean independent, List<Band> reuse ) {
+		List<BandTask> tasks = new ArrayList<>();
+		for( int firstRow = 0, band = 0; firstRow < pixels.getHeight(); firstRow += bandRows, ++band ) {
+			if( reuse != null && reuse.get( band ) != null ) {
+				tasks.add( null );
+				continue;
+			}
+			int lastRow = Math.min( pixels.getHeight(), firstRow + bandRows );
+			BandTask task = new BandTask( pixels, bytesPerPixel, firstRow, lastRow, independent );
+			this.pool.execute( task );
+			tasks.add( task );
+		}
+
+		List<Band> bands = new ArrayList<>( tasks.size() );
+		try {
+			for( int band = 0; band < tasks.size(); ++band ) {
+				BandTask task = tasks.get( band );
+				bands.add( task != null ? task.join() : reuse.get( band ) );
+			}
+		}
+		finally {
+			for( BandTask task : tasks ) {
+				if( task != null ) {
+					task.cancel( false );
+				}
+			}
+		}
+		return bands;
+	}
+
+	/**
+	 * Joins compressed bands into one zlib stream.
+	 *
+	 * @param idat The stream to write the zlib stream to
+	 * @param level The deflate level the bands were compressed at
+	 * @param bands The compressed bands in row order
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void writeBands( OutputStream idat, int level, List<Band> bands ) throws IOException {
+		idat.write( zlibHeader( level ) );
+		long adler = 1;
+		for( Band band : bands ) {
+			band.compressed.writeTo( idat );
+			adler = combineAdler( adler, band.adler, band.rawLength );
+		}
+		idat.write( new byte[] { (byte)( adler >>> 24 ), (byte)( adler >>> 16 ), (byte)( adler >>> 8 ), (byte)adler } );
+	}
+
+	/**
+	 * Writes the stBD chunk, giving the number of rows in each band and the offset of each band in the zlib stream.
+	 *
+	 * @param data The stream to write to
+	 * @param bandRows The number of rows in each band
+	 * @param bands The compressed bands in row order
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void writeBandIndex( DataOutputStream data, int bandRows, List<Band> bands ) throws IOException {
+		ByteBuffer index = ByteBuffer.allocate( 4 + 4 * bands.size() );
+		index.putInt( bandRows );
+
+		// Bands start after the two byte zlib header
+		int offset = 2;
+		for( Band band : bands ) {
+			index.putInt( offset );
+			offset += band.compressed.size();
+		}
+		writeChunk( data, PngDecoder.STBD, index.array(), index.capacity() );
+	}
+
+	/**
+	 * Filters and deflates one band of scanlines as raw deflate data. Independent bands start with a scanline filtered
+	 * without reference to the one above and use no dictionary. Other bands filter the scanlines that end the band
+	 * before them again to give the preset dictionary.
+	 *
+	 * @param pixels The pixels to write
+	 * @param bytesPerPixel The number of bytes in each pixel
+	 * @param firstRow The first row of the band
+	 * @param lastRow The row after the last row of the band
+	 * @param independent True to make a band that can be decoded without the band before it
+	 * @return The compressed band
+	 *
+	 * @since 1.1
+	 */
+	private Band deflateBand( PixelStore pixels, int bytesPerPixel, int firstRow, int lastRow, boolean independent ) {
+		int rowBytes = pixels.getWidth() * bytesPerPixel;
+		int lineBytes = rowBytes + 1;
+		int dictionaryRows = independent ? 0 : Math.min( firstRow, ( DICTIONARY_SIZE + lineBytes - 1 ) / lineBytes );
+		int fromRow = firstRow - dictionaryRows;
+		boolean last = lastRow == pixels.getHeight();
+
+		// Filter the band, and the end of the band before it
+		byte[] raw = new byte[ ( lastRow - fromRow ) * lineBytes ];
+		RowFilter rows = new RowFilter( rowBytes, bytesPerPixel );
+		if( fromRow > 0 && !independent ) {
+			rows.nextRow( pixels, fromRow - 1 );
+		}
+		for( int y = fromRow, p = 0; y < lastRow; ++y, p += lineBytes ) {
+			rows.nextRow( pixels, y );
+			int type = rows.choose( this.filter, independent && y == firstRow && firstRow > 0 );
+			raw[ p ] = (byte)type;
+			System.arraycopy( rows.filtered( type ), 0, raw, p + 1, rowBytes );
+		}
+
+		int start = dictionaryRows * lineBytes;
+		int length = raw.length - start;
+		Adler32 adler = new Adler32();
+		adler.update( raw, start, length );
+
+		Deflater deflater = new Deflater( this.level, true );
+		deflater.setStrategy( this.strategy.deflaterStrategy );
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( length / 4 + 64 );
+		byte[] buffer = new byte[ CHUNK_SIZE ];
+		try {
+			// Deflater only applies a new strategy on its next deflate, which breaks a dictionary set before it
+			compressed.write( buffer, 0, deflater.deflate( buffer, 0, buffer.length, Deflater.NO_FLUSH ) );
+
+			int dictionary = Math.min( start, DICTIONARY_SIZE );
+			if( dictionary > 0 ) {
+				deflater.setDictionary( raw, start - dictionary, dictionary );
+			}
+			deflater.setInput( raw, start, length );
+
+			if( last ) {
+				deflater.finish();
+				while( !deflater.finished() ) {
+					compressed.write( buffer, 0, deflater.deflate( buffer ) );
+				}
+			}
+			else {
+				// A flush ends the band on a byte boundary without ending the stream
+				int flush = independent ? Deflater.FULL_FLUSH : Deflater.SYNC_FLUSH;
+				int count;
+				do {
+					count = deflater.deflate( buffer, 0, buffer.length, flush );
+					compressed.write( buffer, 0, count );
+				} while( count == buffer.length );
+			}
+		}
+		finally {
+			deflater.end();
+		}
+
+		return new Band( compressed, (int)adler.getValue(), length );
+	}
+
+	/**
+	 * Gets the two byte zlib header of a deflate stream at the given level.
+	 *
+	 * @param level The deflate level
+	 * @return The zlib header
+	 *
+	 * @since 1.1
+	 */
+	static byte[] zlibHeader( int level ) {
+		// Deflate with a 32K window, and the same level hint zlib writes
+		int cmf = 0x78;
+		int flevel = level == Deflater.DEFAULT_COMPRESSION ? 2 : level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+		int flg = flevel << 6;
+		flg += 31 - ( cmf << 8 | flg ) % 31;
+		return new byte[] { (byte)cmf, (byte)flg };
+	}
+
+	/**
+	 * Combines the Adler-32 checksums of two pieces of data into the checksum of the two joined together.
+	 *
+	 * @param adler1 The checksum of the first piece
+	 * @param adler2 The checksum of the second piece
+	 * @param length2 The length of the second piece
+	 * @return The checksum of the first piece followed by the second
+	 *
+	 * @since 1.1
+	 */
+	static long combineAdler( long adler1, long adler2, long length2 ) {
+		long remainder = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = remainder * sum1 % ADLER_BASE;
+		sum1 += ( adler2 & 0xFFFF ) + ADLER_BASE - 1;
+		sum2 += ( adler1 >>> 16 & 0xFFFF ) + ( adler2 >>> 16 & 0xFFFF ) + ADLER_BASE - remainder;
+		sum1 %= ADLER_BASE;
+		sum2 %= ADLER_BASE;
+		return sum2 << 16 | sum1;
+	}
+
+	/**
+	 * Band Class. One compressed band of a banded encode. Bands are never changed once compressed.
+	 *
+	 * @since 1.1
+	 */
+	static class Band {
+
+		private final ByteArrayOutputStream compressed;
+		private final int adler;
+		private final int rawLength;
+
+		Band( ByteArrayOutputStream compressed, int adler, int rawLength ) {
+			this.compressed = compressed;
+			this.adler = adler;
+			this.rawLength = rawLength;
+		}
+
+		/**
+		 * Gets the number of compressed bytes in the band.
+		 *
+		 * @return The compressed size in bytes
+		 *
+		 * @since 1.1
+		 */
+		int size() {
+			return this.compressed.size();
+		}
+
+	}
+
+	/**
+	 * BandTask Class. Filters and deflates one band of an image.
+	 *
+	 * @since 1.1
+	 */
+	private class BandTask extends RecursiveTask<Band> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final PixelStore pixels;
+		private final int bytesPerPixel;
+		private final int firstRow;
+		private final int lastRow;
+		private final boolean independent;
+
+		/**
+		 * Creates a task that compresses the rows of an image from row firstRow up to row lastRow.
+		 *
+		 * @param pixels The pixels being written
+		 * @param bytesPerPixel The number of bytes in each pixel
+		 * @param firstRow The first row of the band
+		 * @param lastRow The row after the last row of the band
+		 * @param independent True to make a band that can be decoded without the band before it
+		 *
+		 * @since 1.1
+		 */
+		BandTask( PixelStore pixels, int bytesPerPixel, int firstRow, int lastRow, boolean independent ) {
+			this.pixels = pixels;
+			this.bytesPerPixel = bytesPerPixel;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+			this.independent = independent;
+		}
+
+		@Override
+		protected Band compute() {
+			return deflateBand( this.pixels, this.bytesPerPixel, this.firstRow, this.lastRow, this.independent );
+		}
+
+	}
+
+	/**
+	 * Returns true if every pixel of a store is fully opaque.
+	 *
+	 * @param pixels The pixels to check
+	 * @return True if no pixel has any transparency
+	 *
+	 * @since 1.1
+	 */
+	static boolean isOpaque( PixelStore pixels ) {
+		int alpha = PixelCodec.ALPHA_MASK;
+		for( int i = 0, size = pixels.size(); i < size; ++i ) {
+			alpha &= pixels.getRGB( i );
+		}
+		return alpha == PixelCodec.ALPHA_MASK;
+	}
+
+	/**
+	 * Writes the IHDR chunk of an 8-bit, non-interlaced image.
+	 *
+	 * @param data The stream to write to
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 * @param colorType The color type of the image
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void writeHeader( DataOutputStream data, int width, int height, int colorType ) throws IOException {
+		byte[] header = {
+				(byte)( width >>> 24 ), (byte)( width >>> 16 ), (byte)( width >>> 8 ), (byte)width,
+				(byte)( height >>> 24 ), (byte)( height >>> 16 ), (byte)( height >>> 8 ), (byte)height,
+				8, (byte)colorType, 0, 0, 0 };
+		writeChunk( data, PngDecoder.IHDR, header, header.length );
+	}
+
+	/**
+	 * Writes a chunk with its length and CRC.
+	 *
+	 * @param data The stream to write to
+	 * @param type The type of the chunk
+	 * @param content The data of the chunk
+	 * @param length The number of bytes of content to write
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void writeChunk( DataOutputStream data, int type, byte[] content, int length ) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update( type >>> 24 );
+		crc.update( type >>> 16 );
+		crc.update( type >>> 8 );
+		crc.update( type );
+		crc.update( content, 0, length );
+
+		data.writeInt( length );
+		data.writeInt( type );
+		data.write( content, 0, length );
+		data.writeInt( (int)crc.getValue() );
+	}
+
+	/**
+	 * RowFilter Class. Packs scanlines of a PixelStore into bytes and filters them.
+	 *
+	 * @since 1.1
+	 */
+	static class RowFilter {
+
+		private final int bytesPerPixel;
+
+		/**
+		 * The unfiltered bytes of the previous and current scanlines.
+		 */
+		private byte[] previous, current;
+
+		/**
+		 * The current scanline under each filter type, filled in as filters are applied.
+		 */
+		private final byte[][] filtered = new byte[ FILTER_TYPES ][];
+
+		/**
+		 * Creates a filter for scanlines of the given length.
+		 *
+		 * @param rowBytes The number of bytes in each scanline
+		 * @param bytesPerPixel The number of bytes in each pixel, 3 for RGB or 4 for RGBA
+		 *
+		 * @since 1.1
+		 */
+		RowFilter( int rowBytes, int bytesPerPixel ) {
+			this.bytesPerPixel = bytesPerPixel;
+			this.previous = new byte[ rowBytes ];
+			this.current = new byte[ rowBytes ];
+			for( int type = 0; type < FILTER_TYPES; ++type ) {
+				this.filtered[ type ] = type == PngDecoder.FILTER_NONE ? null : new byte[ rowBytes ];
+			}
+		}
+
+		/**
+		 * Packs the next scanline of a store, keeping the current one as the scanline above it.
+		 *
+		 * @param pixels The pixels being written
+		 * @param y The row of the scanline
+		 *
+		 * @since 1.1
+		 */
+		void nextRow( PixelStore pixels, int y ) {
+			byte[] swap = this.previous;
+			this.previous = this.current;
+			this.current = swap;
+
+			byte[] row = this.current;
+			boolean alpha = this.bytesPerPixel == 4;
+			for( int i = pixels.indexOf( 0, y ), end = i + pixels.getWidth(), p = 0; i < end; ++i ) {
+				int argb = pixels.getRGB( i );
+				row[ p++ ] = (byte)( argb >> 16 );
+				row[ p++ ] = (byte)( argb >> 8 );
+				row[ p++ ] = (byte)argb;
+				if( alpha ) {
+					row[ p++ ] = (byte)( argb >>> 24 );
+				}
+			}
+		}
+
+		/**
+		 * Chooses the filter type of the current scanline, applying the filter.
+		 *
+		 * @param filter The scanline filter of the encoder
+		 * @param withoutAbove True if the scanline must not refer to the one above, limiting it to NONE or SUB
+		 * @return The filter type to write the scanline with
+		 *
+		 * @since 1.1
+		 */
+		int choose( Filter filter, boolean withoutAbove ) {
+			if( filter != Filter.ADAPTIVE ) {
+				// Without a scanline above, UP is the same as NONE and PAETH the same as SUB
+				int type = !withoutAbove || filter.type <= PngDecoder.FILTER_SUB ? filter.type
+						: filter == Filter.UP ? PngDecoder.FILTER_NONE : PngDecoder.FILTER_SUB;
+				this.apply( type );
+				return type;
+			}
+
+			// Pick the filter whose bytes are closest to zero, which usually compresses best
+			int best = PngDecoder.FILTER_NONE;
+			long bestSum = Long.MAX_VALUE;
+			for( int type = 0, types = withoutAbove ? PngDecoder.FILTER_SUB + 1 : FILTER_TYPES; type < types; ++type ) {
+				this.apply( type );
+				long sum = 0;
+				for( byte b : this.filtered( type ) ) {
+					sum += Math.abs( b );
+				}
+				if( sum < bestSum ) {
+					best = type;
+					bestSum = sum;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Gets the current scanline under a filter type that has been applied.
+		 *
+		 * @param type The filter type
+		 * @return The filtered scanline
+		 *
+		 * @since 1.1
+		 */
+		byte[] filtered( int type ) {
+			return type == PngDecoder.FILTER_NONE ? this.current : this.filtered[ type ];
+		}
+
+		/**
+		 * Applies a filter type to the current scanline.
+		 *
+		 * @param type The filter type
+		 *
+		 * @since 1.1
+		 */
+		private void apply( int type ) {
+			byte[] cur = this.current, prev = this.previous, out = this.filtered[ type ];
+			int bpp = this.bytesPerPixel, length = cur.length;
+			switch( type ) {
+				case PngDecoder.FILTER_SUB:
+					System.arraycopy( cur, 0, out, 0, Math.min( bpp, length ) );
+					for( int i = bpp; i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - cur[ i - bpp ] );
+					}
+					break;
+				case PngDecoder.FILTER_UP:
+					for( int i = 0; i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - prev[ i ] );
+					}
+					break;
+				case PngDecoder.FILTER_AVERAGE:
+					for( int i = 0; i < bpp && i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - ( ( prev[ i ] & 0xFF ) >>> 1 ) );
+					}
+					for( int i = bpp; i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - ( ( ( cur[ i - bpp ] & 0xFF ) + ( prev[ i ] & 0xFF ) ) >>> 1 ) );
+					}
+					break;
+				case PngDecoder.FILTER_PAETH:
+					for( int i = 0; i < bpp && i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - prev[ i ] );
+					}
+					for( int i = bpp; i < length; ++i ) {
+						out[ i ] = (byte)( cur[ i ] - PngDecoder.paeth( cur[ i - bpp ] & 0xFF, prev[ i ] & 0xFF, prev[ i - bpp ] & 0xFF ) );
+					}
+					break;
+				default:
+					// Unfiltered bytes are the scanline itself
+					break;
+			}
+		}
+
+	}
+
+	/**
+	 * ChunkOutputStream Class. Splits the data written to it into chunks of one type, each at most CHUNK_SIZE long.
+	 * Closing the stream does not close the stream it writes to.
+	 *
+	 * @since 1.1
+	 */
+	static class ChunkOutputStream extends OutputStream {
+
+		private final DataOutputStream data;
+		private final int type;
+		private final byte[] buffer = new byte[ CHUNK_SIZE ];
+		private int length;
+
+		/**
+		 * Creates a stream writing chunks of the given type.
+		 *
+		 * @param data The stream to write the chunks to
+		 * @param type The type of the chunks
+		 *
+		 * @since 1.1
+		 */
+		ChunkOutputStream( DataOutputStream data, int type ) {
+			this.data = data;
+			this.type = type;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			if( this.length == this.buffer.length ) {
+				this.flushChunk();
+			}
+			this.buffer[ this.length++ ] = (byte)b;
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			while( len > 0 ) {
+				if( this.length == this.buffer.length ) {
+					this.flushChunk();
+				}
+				int count = Math.min( len, this.buffer.length - this.length );
+				System.arraycopy( b, off, this.buffer, this.length, count );
+				this.length += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		/**
+		 * Writes the data held so far as a chunk, if there is any.
+		 *
+		 * @throws IOException Thrown when the stream cannot be written
+		 *
+		 * @since 1.1
+		 */
+		void flushChunk() throws IOException {
+			if( this.length > 0 ) {
+				writeChunk( this.data, this.type, this.buffer, this.length );
+				this.length = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.flushChunk();
+		}
+
+	}
+
+}
@@ -0,0 +1,306 @@
+package chasemh.steg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * QoiCodec Class. Reads and writes images in the QOI (Quite OK Image) format straight to and from a PixelStore.
+ *
+ * QOI is lossless like PNG but has no entropy coding, so images encode and decode many times faster at the cost of
+ * larger files. It suits images that only pass between programs using this package. Opaque images are written with
+ * three channels and any others with four. Translucent pixels are read the way RasterConverter converts them, so
+ * a QOI file gives the same store as a PNG of the same image.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class QoiCodec {
+
+	/**
+	 * The magic bytes every QOI file starts with, "qoif".
+	 */
+	static final int MAGIC = 0x716F6966;
+
+	/**
+	 * The size of the file header.
+	 */
+	private static final int HEADER_SIZE = 14;
+
+	/**
+	 * The bytes that end every QOI file.
+	 */
+	private static final byte[] END_MARKER = { 0, 0, 0, 0, 0, 0, 0, 1 };
+
+	/**
+	 * Chunk tags. The two bit tags are in the top bits of the first byte of a chunk.
+	 */
+	private static final int OP_INDEX = 0x00, OP_DIFF = 0x40, OP_LUMA = 0x80, OP_RUN = 0xC0, OP_RGB = 0xFE, OP_RGBA = 0xFF;
+
+	/**
+	 * Mask selecting the two bit tag of a chunk.
+	 */
+	private static final int TAG_MASK = 0xC0;
+
+	/**
+	 * The longest run a single chunk can hold.
+	 */
+	private static final int MAX_RUN = 62;
+
+	/**
+	 * The most bytes written for a single pixel, an RGBA chunk after the run chunk it ends.
+	 */
+	private static final int MAX_PIXEL_BYTES = 6;
+
+	/**
+	 * The size of the buffer chunks are written through.
+	 */
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	/**
+	 * The largest number of pixels a file may claim, the most a PixelStore can hold.
+	 */
+	private static final long MAX_PIXELS = Integer.MAX_VALUE - 8;
+
+	private QoiCodec() {
+	}
+
+	/**
+	 * Gets the slot of a pixel in the table of recently seen pixels.
+	 *
+	 * @param argb The packed ARGB value of the pixel
+	 * @return The slot, from 0 to 63
+	 *
+	 * @since 1.1
+	 */
+	private static int hash( int argb ) {
+		return ( ( argb >> 16 & 0xFF ) * 3 + ( argb >> 8 & 0xFF ) * 5 + ( argb & 0xFF ) * 7 + ( argb >>> 24 ) * 11 ) & 63;
+	}
+
+	/**
+	 * Reads a QOI image from a stream.
+	 *
+	 * @param in The stream to read. It is read to the end but not closed.
+	 * @return The pixels of the image
+	 * @throws IOException Thrown when the stream cannot be read or does not hold a valid QOI image
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore decode( InputStream in ) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream( WRITE_BUFFER );
+		byte[] buffer = new byte[ WRITE_BUFFER ];
+		for( int n; ( n = in.read( buffer ) ) > 0; ) {
+			data.write( buffer, 0, n );
+		}
+		return decode( data.toByteArray() );
+	}
+
+	/**
+	 * Decodes a QOI image held in memory.
+	 *
+	 * @param data The bytes of the QOI file
+	 * @return The pixels of the image
+	 * @throws IOException Thrown when the bytes do not hold a valid QOI image
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore decode( byte[] data ) throws IOException {
+		if( data.length < HEADER_SIZE + END_MARKER.length || readInt( data, 0 ) != MAGIC ) {
+			throw new IOException( "Not a QOI image" );
+		}
+		long width = readInt( data, 4 ) & 0xFFFFFFFFL, height = readInt( data, 8 ) & 0xFFFFFFFFL;
+		int channels = data[ 12 ];
+		if( width == 0 || height == 0 || width * height > MAX_PIXELS || ( channels != 3 && channels != 4 ) ) {
+			throw new IOException( "Unsupported QOI image: " + width + "x" + height + " with " + channels + " channels" );
+		}
+
+		int[] out = new int[ (int)( width * height ) ];
+		int[] seen = new int[ 64 ];
+		int r = 0, g = 0, b = 0, a = 0xFF;
+		int argb = PixelCodec.ALPHA_MASK;
+		int end = data.length - END_MARKER.length;
+		int p = HEADER_SIZE;
+		try {
+			for( int i = 0; i < out.length; ) {
+				if( p >= end ) {
+					throw new IOException( "QOI image data ends early" );
+				}
+				int op = data[ p++ ] & 0xFF;
+				if( op == OP_RGB ) {
+					r = data[ p ] & 0xFF;
+					g = data[ p + 1 ] & 0xFF;
+					b = data[ p + 2 ] & 0xFF;
+					p += 3;
+				}
+				else if( op == OP_RGBA ) {
+					r = data[ p ] & 0xFF;
+					g = data[ p + 1 ] & 0xFF;
+					b = data[ p + 2 ] & 0xFF;
+					a = data[ p + 3 ] & 0xFF;
+					p += 4;
+				}
+				else {
+					switch( op & TAG_MASK ) {
+						case OP_INDEX:
+							argb = seen[ op ];
+							a = argb >>> 24;
+							r = argb >> 16 & 0xFF;
+							g = argb >> 8 & 0xFF;
+							b = argb & 0xFF;
+							break;
+						case OP_DIFF:
+							r = r + ( op >> 4 & 3 ) - 2 & 0xFF;
+							g = g + ( op >> 2 & 3 ) - 2 & 0xFF;
+							b = b + ( op & 3 ) - 2 & 0xFF;
+							break;
+						case OP_LUMA:
+							int dg = ( op & 0x3F ) - 32;
+							int next = data[ p++ ] & 0xFF;
+							r = r + dg + ( next >> 4 ) - 8 & 0xFF;
+							g = g + dg & 0xFF;
+							b = b + dg + ( next & 0x0F ) - 8 & 0xFF;
+							break;
+						default:
+							// A run repeats the previous pixel, which the loop below writes once more
+							int run = Math.min( op & 0x3F, out.length - i - 1 );
+							int drawn = RasterConverter.drawn( a, r, g, b );
+							for( int j = 0; j < run; ++j ) {
+								out[ i++ ] = drawn;
+							}
+							break;
+					}
+				}
+
+				argb = a << 24 | r << 16 | g << 8 | b;
+				seen[ hash( argb ) ] = argb;
+				out[ i++ ] = RasterConverter.drawn( a, r, g, b );
+			}
+		}
+		catch( ArrayIndexOutOfBoundsException e ) {
+			throw new IOException( "QOI image data ends early", e );
+		}
+
+		return new PixelStore( (int)width, (int)height, out );
+	}
+
+	/**
+	 * Reads a big endian int.
+	 *
+	 * @param data The bytes to read from
+	 * @param offset The offset of the first byte of the int
+	 * @return The int
+	 *
+	 * @since 1.1
+	 */
+	private static int readInt( byte[] data, int offset ) {
+		return ( data[ offset ] & 0xFF ) << 24 | ( data[ offset + 1 ] & 0xFF ) << 16 | ( data[ offset + 2 ] & 0xFF ) << 8 | data[ offset + 3 ] & 0xFF;
+	}
+
+	/**
+	 * Writes the pixels of a store as a QOI image in the sRGB color space.
+	 *
+	 * @param pixels The pixels to write
+	 * @param out The stream to write the image to. It is flushed but not closed.
+	 * @throws IOException Thrown when the stream cannot be written
+	 *
+	 * @since 1.1
+	 */
+	static void encode( PixelStore pixels, OutputStream out ) throws IOException {
+		boolean alpha = !PngEncoder.isOpaque( pixels );
+		byte[] buffer = new byte[ WRITE_BUFFER + MAX_PIXEL_BYTES ];
+		int p = 0;
+		p = writeInt( buffer, p, MAGIC );
+		p = writeInt( buffer, p, pixels.getWidth() );
+		p = writeInt( buffer, p, pixels.getHeight() );
+		buffer[ p++ ] = (byte)( alpha ? 4 : 3 );
+		buffer[ p++ ] = 0;
+
+		int[] seen = new int[ 64 ];
+		int previous = PixelCodec.ALPHA_MASK;
+		int run = 0;
+		for( int i = 0, size = pixels.size(); i < size; ++i ) {
+			int argb = pixels.getRGB( i );
+			if( argb == previous ) {
+				if( ++run == MAX_RUN ) {
+					buffer[ p++ ] = (byte)( OP_RUN | run - 1 );
+					run = 0;
+				}
+			}
+			else {
+				if( run > 0 ) {
+					buffer[ p++ ] = (byte)( OP_RUN | run - 1 );
+					run = 0;
+				}
+
+				int slot = hash( argb );
+				if( seen[ slot ] == argb ) {
+					buffer[ p++ ] = (byte)( OP_INDEX | slot );
+				}
+				else {
+					seen[ slot ] = argb;
+					if( ( ( argb ^ previous ) >>> 24 ) == 0 ) {
+						// Differences wrap around, as the decoder adds them modulo 256
+						int dr = (byte)( ( argb >> 16 ) - ( previous >> 16 ) );
+						int dg = (byte)( ( argb >> 8 ) - ( previous >> 8 ) );
+						int db = (byte)( argb - previous );
+						int drg = dr - dg, dbg = db - dg;
+						if( dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1 ) {
+							buffer[ p++ ] = (byte)( OP_DIFF | dr + 2 << 4 | dg + 2 << 2 | db + 2 );
+						}
+						else if( dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7 ) {
+							buffer[ p++ ] = (byte)( OP_LUMA | dg + 32 );
+							buffer[ p++ ] = (byte)( drg + 8 << 4 | dbg + 8 );
+						}
+						else {
+							buffer[ p++ ] = (byte)OP_RGB;
+							buffer[ p++ ] = (byte)( argb >> 16 );
+							buffer[ p++ ] = (byte)( argb >> 8 );
+							buffer[ p++ ] = (byte)argb;
+						}
+					}
+					else {
+						buffer[ p++ ] = (byte)OP_RGBA;
+						buffer[ p++ ] = (byte)( argb >> 16 );
+						buffer[ p++ ] = (byte)( argb >> 8 );
+						buffer[ p++ ] = (byte)argb;
+						buffer[ p++ ] = (byte)( argb >>> 24 );
+					}
+				}
+				previous = argb;
+			}
+
+			if( p >= WRITE_BUFFER ) {
+				out.write( buffer, 0, p );
+				p = 0;
+			}
+		}
+		if( run > 0 ) {
+			buffer[ p++ ] = (byte)( OP_RUN | run - 1 );
+		}
+
+		out.write( buffer, 0, p );
+		out.write( END_MARKER );
+		out.flush();
+	}
+
+	/**
+	 * Writes a big endian int.
+	 *
+	 * @param buffer The buffer to write to
+	 * @param offset The offset to write the first byte at
+	 * @param value The int to write
+	 * @return The offset after the int
+	 *
+	 * @since 1.1
+	 */
+	private static int writeInt( byte[] buffer, int offset, int value ) {
+		buffer[ offset ] = (byte)( value >>> 24 );
+		buffer[ offset + 1 ] = (byte)( value >>> 16 );
+		buffer[ offset + 2 ] = (byte)( value >>> 8 );
+		buffer[ offset + 3 ] = (byte)value;
+		return offset + 4;
+	}
+
+}
@@ -0,0 +1,220 @@
+package chasemh.steg;
+
+import java.nio.LongBuffer;
+
+/**
+ * RankSelectBitSet Class. An immutable bit set that answers rank (how many bits are set before a position) and
+ * select (where is the k-th set bit) queries without scanning.
+ * Besides the bits themselves it keeps one int for every 512 bits, the number of bits set before that block,
+ * which adds about 6% to the size of the set. The words may be held in an array or in a buffer, such as a view of a
+ * memory mapped key file.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+class RankSelectBitSet {
+
+	/**
+	 * The number of 64 bit words covered by each entry of the rank directory, as a power of two.
+	 */
+	private static final int WORDS_PER_BLOCK_SHIFT = 3;
+
+	/**
+	 * The number of bits in the set.
+	 */
+	private final int length;
+
+	/**
+	 * The bits of the set, 64 to a word, indexed from zero.
+	 */
+	private final LongBuffer words;
+
+	/**
+	 * The number of bits set before each block of words.
+	 */
+	private final int[] blockRanks;
+
+	/**
+	 * The number of bits set in the whole set.
+	 */
+	private final int cardinality;
+
+	/**
+	 * Creates a new RankSelectBitSet over the given words. The array is used directly, not copied, and must
+	 * not be changed afterwards.
+	 *
+	 * @param length The number of bits in the set
+	 * @param words The bits of the set, 64 to a word
+	 *
+	 * @since 1.1
+	 */
+	RankSelectBitSet( int length, long[] words ) {
+		this( length, LongBuffer.wrap( words ) );
+	}
+
+	/**
+	 * Creates a new RankSelectBitSet over the remaining words of a buffer. The buffer's content is used directly,
+	 * not copied, and must not be changed afterwards.
+	 *
+	 * @param length The number of bits in the set
+	 * @param words The bits of the set, 64 to a word
+	 *
+	 * @since 1.1
+	 */
+	RankSelectBitSet( int length, LongBuffer words ) {
+		this.length = length;
+		this.words = words.slice();
+		int wordCount = this.words.limit();
+		this.blockRanks = new int[ ( ( wordCount - 1 ) >> WORDS_PER_BLOCK_SHIFT ) + 1 ];
+
+		int rank = 0;
+		for( int w = 0; w < wordCount; ++w ) {
+			if( ( w & ( ( 1 << WORDS_PER_BLOCK_SHIFT ) - 1 ) ) == 0 ) {
+				this.blockRanks[ w >> WORDS_PER_BLOCK_SHIFT ] = rank;
+			}
+			rank += Long.bitCount( this.words.get( w ) );
+		}
+		this.cardinality = rank;
+	}
+
+	/**
+	 * Gets the number of words needed to hold the given number of bits.
+	 *
+	 * @param length The number of bits
+	 * @return The number of 64 bit words needed
+	 *
+	 * @since 1.1
+	 */
+	static int wordsFor( int length ) {
+		return Math.max( 1, ( length + 63 ) >>> 6 );
+	}
+
+	/**
+	 * Gets the words holding the bits of the set, such as to write the set to a key file.
+	 *
+	 * @return A read only view of the words, 64 bits to a word
+	 *
+	 * @since 1.1
+	 */
+	LongBuffer words() {
+		return this.words.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets the number of bits in the set.
+	 *
+	 * @return The number of bits in the set.
+	 *
+	 * @since 1.1
+	 */
+	int length() {
+		return this.length;
+	}
+
+	/**
+	 * Gets the number of bits set in the whole set.
+	 *
+	 * @return The number of set bits.
+	 *
+	 * @since 1.1
+	 */
+	int cardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * Returns true if the bit at the given position is set.
+	 *
+	 * @param position The position of the bit
+	 * @return True if the bit is set
+	 *
+	 * @since 1.1
+	 */
+	boolean get( int position ) {
+		return ( this.words.get( position >>> 6 ) & ( 1L << position ) ) != 0;
+	}
+
+	/**
+	 * Counts the bits set before the given position.
+	 *
+	 * @param position The position to count up to, between 0 and the length of the set
+	 * @return The number of set bits in [0, position)
+	 *
+	 * @since 1.1
+	 */
+	int rank( int position ) {
+		int word = position >>> 6;
+		if( word >= this.words.limit() ) {
+			return this.cardinality;
+		}
+
+		int rank = this.blockRanks[ word >> WORDS_PER_BLOCK_SHIFT ];
+
+		for( int w = ( word >> WORDS_PER_BLOCK_SHIFT ) << WORDS_PER_BLOCK_SHIFT; w < word; ++w ) {
+			rank += Long.bitCount( this.words.get( w ) );
+		}
+		if( ( position & 63 ) != 0 ) {
+			rank += Long.bitCount( this.words.get( word ) & ( -1L >>> ( 64 - ( position & 63 ) ) ) );
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Finds the position of the k-th set bit, counting from zero.
+	 *
+	 * @param k The number of set bits to skip
+	 * @return The position of the set bit
+	 * @throws IndexOutOfBoundsException Thrown when fewer than k + 1 bits are set
+	 *
+	 * @since 1.1
+	 */
+	int select( int k ) {
+		if( k < 0 || k >= this.cardinality ) {
+			throw new IndexOutOfBoundsException( "Cannot select bit " + k + " of " + this.cardinality );
+		}
+
+		// Find the last block that starts with at most k bits set before it
+		int low = 0;
+		int high = this.blockRanks.length - 1;
+		while( low < high ) {
+			int mid = ( low + high + 1 ) >>> 1;
+			if( this.blockRanks[ mid ] <= k ) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+
+		// Walk the words of the block, then the bits of the word
+		int remaining = k - this.blockRanks[ low ];
+		int w = low << WORDS_PER_BLOCK_SHIFT;
+		int count = Long.bitCount( this.words.get( w ) );
+		while( remaining >= count ) {
+			remaining -= count;
+			count = Long.bitCount( this.words.get( ++w ) );
+		}
+
+		long word = this.words.get( w );
+		for( int i = 0; i < remaining; ++i ) {
+			word &= word - 1;
+		}
+
+		return ( w << 6 ) + Long.numberOfTrailingZeros( word );
+	}
+
+	/**
+	 * Gets the approximate number of bytes of heap used by the set. Words held in a direct or mapped buffer, such as
+	 * those of a compiled key, are not on the heap and are not counted.
+	 *
+	 * @return The size of the set in bytes
+	 *
+	 * @since 1.1
+	 */
+	long memoryBytes() {
+		return ( this.words.isDirect() ? 0 : 8L * this.words.limit() ) + 4L * this.blockRanks.length;
+	}
+
+}
@@ -0,0 +1,311 @@
+package chasemh.steg;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * RasterConverter Class. Turns decoded images into PixelStores by reading their rasters directly.
+ *
+ * Images used to be drawn onto a new ARGB image with Graphics2D before their pixels were read. That needs a second
+ * copy of the image and a slow blit for the byte based types image readers return. This class writes each common
+ * raster layout straight into the packed store, giving exactly the pixels the drawing gave, so keys read before and
+ * after produce the same store. Packed int images are wrapped without copying. Any other layout is still drawn.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class RasterConverter {
+
+	/**
+	 * The opaque alpha component value.
+	 */
+	private static final int OPAQUE = 0xFF;
+
+	/**
+	 * The color component a translucent pixel ends up with once drawn, indexed by alpha << 8 | component.
+	 * Drawing premultiplies each component by alpha and divides it back out, rounding through Java2D's 8-bit tables.
+	 */
+	private static final byte[] DRAWN_COMPONENT = new byte[ 256 * 256 ];
+
+	static {
+		for( int alpha = 1; alpha < 256; ++alpha ) {
+			int[] multiplied = new int[ 256 ];
+			long step = alpha * 0x010101L;
+			long value = step + ( 1L << 23 );
+			for( int c = 1; c < 256; ++c ) {
+				multiplied[ c ] = (int)( value >>> 24 ) & 0xFF;
+				value += step;
+			}
+
+			int[] divided = new int[ 256 ];
+			step = ( 0xFF000000L + alpha / 2 ) / alpha;
+			value = 1L << 23;
+			for( int c = 0; c < 256; ++c ) {
+				divided[ c ] = c < alpha ? (int)( value >>> 24 ) & 0xFF : OPAQUE;
+				value += step;
+			}
+
+			for( int c = 0; c < 256; ++c ) {
+				DRAWN_COMPONENT[ alpha << 8 | c ] = (byte)divided[ multiplied[ c ] ];
+			}
+		}
+	}
+
+	private RasterConverter() {
+	}
+
+	/**
+	 * Turns an image into a PixelStore holding the ARGB pixels it has when drawn onto a transparent ARGB image.
+	 * The image must not be used afterwards, since its pixels may be shared with or changed for the store.
+	 *
+	 * @param img The image to convert
+	 * @return The PixelStore representation of the image
+	 *
+	 * @since 1.1
+	 */
+	static PixelStore toPixelStore( BufferedImage img ) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+
+		int[] packed = packedPixelData( img );
+		if( packed != null ) {
+			// The raster already holds packed pixels in row order, use it as the store
+			normalise( packed, img.getType() == BufferedImage.TYPE_INT_ARGB );
+			return new PixelStore( width, height, packed );
+		}
+
+		WritableRaster raster = img.getRaster();
+		if( raster.getDataBuffer() instanceof DataBufferByte && raster.getDataBuffer().getNumBanks() == 1
+				&& raster.getSampleModel() instanceof PixelInterleavedSampleModel ) {
+			PixelStore store = new PixelStore( width, height );
+			ColorModel model = img.getColorModel();
+
+			if( isInterleavedRGB( model, raster ) ) {
+				convertInterleavedRGB( raster, store.array(), width, height );
+				return store;
+			}
+			if( img.getType() == BufferedImage.TYPE_BYTE_GRAY ) {
+				convertGray( raster, store.array(), width, height );
+				return store;
+			}
+			if( model instanceof IndexColorModel && raster.getNumBands() == 1 && model.getPixelSize() == 8 ) {
+				convertIndexed( raster, (IndexColorModel)model, store.array(), width, height );
+				return store;
+			}
+		}
+
+		// Let Java2D convert any other layout
+		BufferedImage drawn = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+		Graphics2D g = drawn.createGraphics();
+		g.drawImage( img, 0, 0, null );
+		g.dispose();
+		return new PixelStore( width, height, packedPixelData( drawn ) );
+	}
+
+	/**
+	 * Gets the int array backing an image if it holds its pixels as unpremultiplied ARGB (or RGB) ints
+	 * laid out one row after another with no padding.
+	 *
+	 * @param img The image to inspect
+	 * @return The array backing the image, or null if the image uses any other layout
+	 *
+	 * @since 1.1
+	 */
+	static int[] packedPixelData( BufferedImage img ) {
+		if( img.getType() != BufferedImage.TYPE_INT_ARGB && img.getType() != BufferedImage.TYPE_INT_RGB ) {
+			return null;
+		}
+
+		WritableRaster raster = img.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+		SampleModel model = raster.getSampleModel();
+
+		if( !( buffer instanceof DataBufferInt ) || !( model instanceof SinglePixelPackedSampleModel )
+				|| ( (SinglePixelPackedSampleModel)model ).getScanlineStride() != img.getWidth()
+				|| raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+				|| buffer.getOffset() != 0 || buffer.getNumBanks() != 1 ) {
+			return null;
+		}
+
+		return ( (DataBufferInt)buffer ).getData();
+	}
+
+	/**
+	 * Gives the pixels of a packed image the values they have once drawn: RGB pixels become opaque and
+	 * translucent ARGB pixels get the rounding of being premultiplied and divided back out.
+	 *
+	 * @param argb The packed pixels, changed in place
+	 * @param hasAlpha True if the alpha component of the pixels is meaningful
+	 *
+	 * @since 1.1
+	 */
+	private static void normalise( int[] argb, boolean hasAlpha ) {
+		for( int i = 0; i < argb.length; ++i ) {
+			int pixel = argb[ i ];
+			argb[ i ] = hasAlpha ? drawn( pixel >>> 24, pixel >> 16 & 0xFF, pixel >> 8 & 0xFF, pixel & 0xFF ) : pixel | PixelCodec.ALPHA_MASK;
+		}
+	}
+
+	/**
+	 * Gets the ARGB value a pixel has once drawn onto a transparent ARGB image.
+	 *
+	 * @param alpha The alpha component of the pixel
+	 * @param red The red component of the pixel
+	 * @param green The green component of the pixel
+	 * @param blue The blue component of the pixel
+	 * @return The packed ARGB value of the drawn pixel
+	 *
+	 * @since 1.1
+	 */
+	static int drawn( int alpha, int red, int green, int blue ) {
+		if( alpha == OPAQUE ) {
+			return PixelCodec.ALPHA_MASK | red << 16 | green << 8 | blue;
+		}
+		if( alpha == 0 ) {
+			return 0;
+		}
+
+		int row = alpha << 8;
+		return alpha << 24 | ( DRAWN_COMPONENT[ row | red ] & 0xFF ) << 16
+				| ( DRAWN_COMPONENT[ row | green ] & 0xFF ) << 8 | DRAWN_COMPONENT[ row | blue ] & 0xFF;
+	}
+
+	/**
+	 * Returns true if a raster holds unpremultiplied 8-bit sRGB pixels, with or without alpha, one byte per component.
+	 *
+	 * @param model The color model of the image
+	 * @param raster The raster of the image
+	 * @return True if the image can be read by convertInterleavedRGB
+	 *
+	 * @since 1.1
+	 */
+	private static boolean isInterleavedRGB( ColorModel model, WritableRaster raster ) {
+		if( !( model instanceof ComponentColorModel ) || !model.getColorSpace().isCS_sRGB() || model.isAlphaPremultiplied() ) {
+			return false;
+		}
+
+		int bands = raster.getNumBands();
+		if( bands != ( model.hasAlpha() ? 4 : 3 ) ) {
+			return false;
+		}
+		for( int size : raster.getSampleModel().getSampleSize() ) {
+			if( size != 8 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the position in its data array of the first byte of the top left pixel of an interleaved byte raster.
+	 * Band offsets are added on top of this.
+	 *
+	 * @param raster The raster of the image
+	 * @return The position of the top left pixel
+	 *
+	 * @since 1.1
+	 */
+	private static int firstPixel( WritableRaster raster ) {
+		PixelInterleavedSampleModel model = (PixelInterleavedSampleModel)raster.getSampleModel();
+		int x = -raster.getSampleModelTranslateX();
+		int y = -raster.getSampleModelTranslateY();
+		return raster.getDataBuffer().getOffset() + y * model.getScanlineStride() + x * model.getPixelStride();
+	}
+
+	/**
+	 * Reads interleaved 8-bit sRGB pixels such as TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR images.
+	 *
+	 * @param raster The raster of the image
+	 * @param out The array to write the packed pixels to
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 *
+	 * @since 1.1
+	 */
+	private static void convertInterleavedRGB( WritableRaster raster, int[] out, int width, int height ) {
+		PixelInterleavedSampleModel model = (PixelInterleavedSampleModel)raster.getSampleModel();
+		byte[] data = ( (DataBufferByte)raster.getDataBuffer() ).getData();
+		int[] offsets = model.getBandOffsets();
+		int pixelStride = model.getPixelStride();
+		int rowStride = model.getScanlineStride();
+		int base = firstPixel( raster );
+		int r = offsets[ 0 ], g = offsets[ 1 ], b = offsets[ 2 ];
+		boolean hasAlpha = offsets.length == 4;
+		int a = hasAlpha ? offsets[ 3 ] : 0;
+
+		for( int y = 0, i = 0; y < height; ++y ) {
+			for( int x = 0, p = base + y * rowStride; x < width; ++x, ++i, p += pixelStride ) {
+				int alpha = hasAlpha ? data[ p + a ] & 0xFF : OPAQUE;
+				out[ i ] = drawn( alpha, data[ p + r ] & 0xFF, data[ p + g ] & 0xFF, data[ p + b ] & 0xFF );
+			}
+		}
+	}
+
+	/**
+	 * Reads 8-bit grayscale pixels. Drawing copies the gray level into each of R, G and B unchanged, without the
+	 * gamma conversion BufferedImage.getRGB applies, so this does the same.
+	 *
+	 * @param raster The raster of the image
+	 * @param out The array to write the packed pixels to
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 *
+	 * @since 1.1
+	 */
+	private static void convertGray( WritableRaster raster, int[] out, int width, int height ) {
+		PixelInterleavedSampleModel model = (PixelInterleavedSampleModel)raster.getSampleModel();
+		byte[] data = ( (DataBufferByte)raster.getDataBuffer() ).getData();
+		int pixelStride = model.getPixelStride();
+		int rowStride = model.getScanlineStride();
+		int base = firstPixel( raster ) + model.getBandOffsets()[ 0 ];
+
+		for( int y = 0, i = 0; y < height; ++y ) {
+			for( int x = 0, p = base + y * rowStride; x < width; ++x, ++i, p += pixelStride ) {
+				out[ i ] = PixelCodec.ALPHA_MASK | ( data[ p ] & 0xFF ) * 0x010101;
+			}
+		}
+	}
+
+	/**
+	 * Reads 8-bit palette pixels through a table of the drawn value of every palette entry.
+	 *
+	 * @param raster The raster of the image
+	 * @param model The palette of the image
+	 * @param out The array to write the packed pixels to
+	 * @param width The width of the image in pixels
+	 * @param height The height of the image in pixels
+	 *
+	 * @since 1.1
+	 */
+	private static void convertIndexed( WritableRaster raster, IndexColorModel model, int[] out, int width, int height ) {
+		int[] palette = new int[ 256 ];
+		for( int entry = 0; entry < palette.length; ++entry ) {
+			int argb = model.getRGB( entry );
+			palette[ entry ] = drawn( argb >>> 24, argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF );
+		}
+
+		PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)raster.getSampleModel();
+		byte[] data = ( (DataBufferByte)raster.getDataBuffer() ).getData();
+		int pixelStride = sampleModel.getPixelStride();
+		int rowStride = sampleModel.getScanlineStride();
+		int base = firstPixel( raster ) + sampleModel.getBandOffsets()[ 0 ];
+
+		for( int y = 0, i = 0; y < height; ++y ) {
+			for( int x = 0, p = base + y * rowStride; x < width; ++x, ++i, p += pixelStride ) {
+				out[ i ] = palette[ data[ p ] & 0xFF ];
+			}
+		}
+	}
+
+}
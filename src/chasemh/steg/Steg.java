@@ -1,12 +1,16 @@
 package chasemh.steg;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ThreadLocalRandom;
-import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntUnaryOperator;
 import javax.swing.JFileChooser;
 
 /**
@@ -19,26 +23,99 @@ import javax.swing.JFileChooser;
 public class Steg {
 
 	/**
-	 * The key image used for encrytion and decryption of messages.
+	 * The number of message characters placed by one fork/join task before it splits its work in two.
 	 */
-	private BufferedImage keyImg;
+	private static final int PLACEMENT_BATCH = 2048;
 	
 	/**
-	 * CipherPixel array representation of the Key image.
+	 * The number of image rows compared by one fork/join task when decrypting in parallel.
 	 */
-	private CipherPixel[] pixels;
+	private static final int SCAN_BAND_ROWS = 64;
+	
+	/**
+	 * The smallest image, in pixels, that is decrypted in parallel.
+	 */
+	private static final int PARALLEL_SCAN_PIXELS = 1 << 20;
+	
+	/**
+	 * The shortest message, in characters, that is enciphered in parallel. Shorter messages take less time to
+	 * encipher than to fork.
+	 */
+	private static final int PARALLEL_ENCIPHER_CHARACTERS = 1 << 14;
+	
+	/**
+	 * Marks the end of a message written along a keyed pixel schedule. Sanitized messages never contain it.
+	 */
+	private static final char END_MARKER = ']';
+	
+	/**
+	 * Every ASCII character a sanitized message, its length header and its end marker can contain. Messages can
+	 * also hold characters from outside ASCII, such as accented letters, when the input does.
+	 */
+	static final String MESSAGE_CHARACTERS = messageCharacters();
+
+	/**
+	 * The key used for encryption and decryption of messages, which may be shared with other Steg objects.
+	 */
+	private final KeyImage key;
+	
+	/**
+	 * Packed pixel representation of the key image used for encryption and decryption of messages.
+	 * The key is never modified; encryption records its changes in a PixelOverlay instead.
+	 */
+	private final PixelStore pixels;
+	
+	/**
+	 * How much room each key pixel has for an enciphered character, computed once when the key is loaded.
+	 */
+	private final HeadroomMap headroom;
+	
+	/**
+	 * The pixels of the key that can fit each class of character, built as classes are first needed.
+	 */
+	private final CandidateIndex candidates;
+	
+	/**
+	 * The seed used to choose pixels during encryption, or null to choose a fresh seed for every encryption.
+	 */
+	private Long seed;
+	
+	/**
+	 * The fingerprint of the key image, which keyed pixel schedules are derived from.
+	 */
+	private final long keyFingerprint;
+	
+	/**
+	 * The pixel schedule derived from the shared secret, or null when messages are spread at random over the key.
+	 */
+	private PixelSchedule schedule;
+	
+	/**
+	 * True if encrypted messages start with a header giving their length.
+	 */
+	private boolean lengthHeader;
+	
+	/**
+	 * The pool that runs the parallel parts of encryption and decryption, and that inflates banded PNG files.
+	 */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	
+	/**
+	 * Reads and writes image files, reusing readers and writers between calls.
+	 */
+	private final ImageCodec codec = new ImageCodec();
 	
 	/**
 	 * Creates a new Steg object
 	 * 
-	 * @param keyFilePath Path to the image file that will be read in and used as the encryption/decryption key
+	 * @param keyFilePath Path to the image file that will be read in and used as the encryption/decryption key, or to
+	 * a key compiled by compileKey, which is memory mapped and ready to use without being decoded
 	 * 
 	 * @since 1.0 
 	 */
 	public Steg( String keyFilePath ) throws IOException {
 		
-		this.keyImg = this.readImageFromFile( keyFilePath );
-		this.pixels = this.toCipherPixelArray( this.keyImg );
+		this( KeyImage.read( keyFilePath ) );
 
 	}
 	
@@ -51,8 +128,39 @@ public class Steg {
 	 */
 	public Steg() throws IOException {
 		
-		this.keyImg = this.readImageFromFile( this.chooseFile( false ) );
-		this.pixels = this.toCipherPixelArray( this.keyImg );
+		this( chooseFile( false ) );
+
+	}
+	
+	/**
+	 * Creates a new Steg object from key pixels that are already in memory, such as a buffer backed store.
+	 * The store is used directly and must not be changed while this object uses it.
+	 * 
+	 * @param key The pixels of the image used as the encryption/decryption key
+	 * 
+	 * @since 1.1
+	 */
+	public Steg( PixelStore key ) {
+		
+		this( new KeyImage( key ) );
+
+	}
+	
+	/**
+	 * Creates a new Steg object that uses a key shared with other Steg objects. The key is not copied, so creating
+	 * many Steg objects for one key costs little memory, and they may be used on different threads at once.
+	 * 
+	 * @param key The encryption/decryption key
+	 * 
+	 * @since 1.1
+	 */
+	public Steg( KeyImage key ) {
+		
+		this.key = key;
+		this.pixels = key.pixels();
+		this.headroom = key.headroom();
+		this.candidates = key.candidates();
+		this.keyFingerprint = key.getFingerprint();
 
 	}
 	
@@ -66,7 +174,7 @@ public class Steg {
 	 * 
 	 * @since 1.0
 	 */
-	private String chooseFile( boolean savingFile ) throws IOException {
+	private static String chooseFile( boolean savingFile ) throws IOException {
 		
 		JFileChooser jfc = new JFileChooser();
 		jfc.setCurrentDirectory( new File(System.getProperty( "user.dir" ) ) );
@@ -93,25 +201,18 @@ public class Steg {
 	}
 	
 	/**
-	 * Reads an image from file and stores it as a BufferedImage with 8-bit RGBA color components packed into integer pixels.
+	 * Reads an image from file and stores it as a PixelStore with 8-bit ARGB color components packed into integer pixels.
 	 * 
 	 * @param fileName Path to the image file to read
-	 * @return A BufferedImage representing the image read from file
+	 * @return A PixelStore representing the image read from file
 	 * @throws IOException Thrown when fileName is not a path to a valid image
 	 * 
 	 * @since 1.0
 	 */
-	private BufferedImage readImageFromFile( String fileName ) throws IOException {
-		
-		// Read in the raw image 
-		BufferedImage in = ImageIO.read( new File( fileName ) );
-
-		// Convert the image into a consistent type
-		BufferedImage out = new BufferedImage( in.getWidth(), in.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		Graphics2D g = out.createGraphics();
-		g.drawImage( in, 0, 0, null );
+	private PixelStore readImageFromFile( String fileName ) throws IOException {
 		
-		return out;
+		// Read in the raw image and convert it straight from its own raster layout
+		return this.codec.read( fileName );
 		
 	}
 	
@@ -120,128 +221,422 @@ public class Steg {
 	 * 
 	 * @param fileName The absolute path to the file to save the BufferedImage to
 	 * @param img The BufferedImage to save
+	 * @param changes The pixels where the image differs from the key
 	 * @throws IOException Thrown if the user does not type in or select a file to save to
 	 * 
 	 * @since 1.0
 	 */
-	private void writeImageToFile( String fileName, BufferedImage img ) throws IOException {
-		
-		File outputfile = new File( fileName );
-		
-		String extension = "";
-		int i = fileName.lastIndexOf( '.' );
-		if (i > 0) {
-		    extension = fileName.substring( i+1 );
-		}
+	private void writeImageToFile( String fileName, BufferedImage img, PixelOverlay changes ) throws IOException {
 		
-	    ImageIO.write( img, extension, outputfile );
+		// PNG files only compress again the bands of the key that hold enciphered pixels
+		BandCache bands = "png".equals( ImageCodec.extensionOf( fileName ) ) ? this.key.bands( this.codec.pngEncoder() ) : null;
+		this.codec.write( fileName, img, bands, changes );
 	    
 	}
 	
 	/**
-	 * Turns a BufferedImage into a CipherPixel Array representation.
+	 * Turns a PixelStore with a PixelOverlay applied into a BufferedImage
 	 * 
-	 * @param img The BufferedImage to convert.
-	 * @return The CipherPixel Array representation of the given image
+	 * @param store The PixelStore to convert.
+	 * @param overlay The changes to apply on top of the store.
+	 * @return The BufferedImage representation of the given pixels
 	 * 
-	 * @since 1.0
+	 * @since 1.1
 	 */
-	private CipherPixel[] toCipherPixelArray( BufferedImage img) {
-		// Convert the BufferedImage into a CipherPixel Array
-		int height = img.getHeight();
-		int width = img.getWidth();
+	private BufferedImage toBufferedImage( PixelStore store, PixelOverlay overlay ) {
+		// Convert the PixelStore to a buffered image
 		
-		CipherPixel[] cipherPixels = new CipherPixel[ height * width ];
-		int pixelIndex = 0;
+		BufferedImage outImg = new BufferedImage( store.getWidth(), store.getHeight(), BufferedImage.TYPE_INT_ARGB );
+		int[] out = RasterConverter.packedPixelData( outImg );
+		store.copyTo( out );
 		
-		for( int y = 0; y < height; ++y ) {
-			for( int x = 0; x < width; ++x ) {
-				cipherPixels[ pixelIndex ] = new CipherPixel( x, y, img.getRGB( x, y ) );
-				pixelIndex++;
-			}
+		for( int i = 0; i < out.length; ++i ) {
+			out[ i ] = PixelCodec.opaque( out[ i ] );
 		}
+		overlay.applyTo( out );
 		
-		return cipherPixels;
+		return outImg;
 	}
 	
 	/**
-	 * Turns a CipherPixel Array into a BufferedImage
+	 * Sets the seed used to choose pixels during encryption. Encrypting a message with the same key pixels and seed
+	 * always produces the same image, however many threads do the work and whether the key is new, shared with
+	 * other Steg objects or compiled.
 	 * 
-	 * @param img The BufferedImage to convert.
-	 * @return The CipherPixel Array representation of the given image
+	 * @param seed The seed to use, or null to choose a fresh seed for every encryption
 	 * 
-	 * @since 1.0
+	 * @since 1.1
 	 */
-	private BufferedImage toBufferedImage( CipherPixel[] cipherPixels ) {
-		// Convert the CiperPixel array to a buffered image
-		
-		int height = this.keyImg.getHeight();
-		int width = this.keyImg.getWidth();
-		BufferedImage outImg = new BufferedImage( width, height, this.keyImg.getType() );
+	public void setSeed( Long seed ) {
+		this.seed = seed;
+	}
+	
+	/**
+	 * Sets a secret shared with the other side of the conversation and switches to keyed mode.
+	 * In keyed mode, message characters are written along a pixel schedule derived from the secret and the key image instead
+	 * of at random, and decryption only reads the pixels on that schedule rather than comparing the whole image with the key.
+	 * Both sides must use the same secret, and images written in one mode can only be decrypted in the same mode.
+	 * 
+	 * @param secret The shared secret, or null to spread messages at random over the key
+	 * 
+	 * @since 1.1
+	 */
+	public void setSecret( String secret ) {
+		this.schedule = secret != null ? new PixelSchedule( secret, this.keyFingerprint, this.pixels.size() ) : null;
+	}
+	
+	/**
+	 * Sets whether encrypted messages start with a header giving their length. Decryption recognises the header on its own,
+	 * sizes its output to fit and stops reading the image as soon as the last character of the message has been found.
+	 * 
+	 * @param lengthHeader True to write a length header in front of encrypted messages
+	 * 
+	 * @since 1.1
+	 */
+	public void setLengthHeader( boolean lengthHeader ) {
+		this.lengthHeader = lengthHeader;
+	}
+	
+	/**
+	 * Sets the pool that runs the parallel parts of encryption and decryption, and that inflates banded PNG files.
+	 * 
+	 * @param pool The pool to use, or null to use the common pool
+	 * 
+	 * @since 1.1
+	 */
+	public void setPool( ForkJoinPool pool ) {
+		this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+		this.codec.setPool( pool );
+	}
+	
+	/**
+	 * Gets the fingerprint of the key image.
+	 * 
+	 * @return The 64 bit fingerprint of the key image
+	 * 
+	 * @since 1.1
+	 */
+	public long getKeyFingerprint() {
+		return this.keyFingerprint;
+	}
+	
+	/**
+	 * Gets the key, which can be shared with other Steg objects.
+	 * 
+	 * @return The encryption/decryption key
+	 * 
+	 * @since 1.1
+	 */
+	public KeyImage getKey() {
+		return this.key;
+	}
+	
+	/**
+	 * Gets the heap used by the key's selection indexes: the headroom map and every candidate set built so far.
+	 * The candidate sets are bounded to CandidateIndex.MAX_CLASSES sets of one bit per key pixel each.
+	 * 
+	 * @return The size of the selection indexes in bytes
+	 * 
+	 * @since 1.1
+	 */
+	public long getSelectionIndexBytes() {
+		return this.key.getSelectionIndexBytes();
+	}
+	
+	/**
+	 * Gets the encoder used to save encrypted images as PNG files.
+	 * 
+	 * @return The PNG encoder
+	 * 
+	 * @since 1.1
+	 */
+	public PngEncoder getPngEncoder() {
+		return this.codec.pngEncoder();
+	}
+	
+	/**
+	 * Sets the encoder used to save encrypted images as PNG files, which chooses their deflate level, strategy and filter.
+	 * 
+	 * @param pngEncoder The PNG encoder, or null to use an encoder with the default settings
+	 * 
+	 * @since 1.1
+	 */
+	public void setPngEncoder( PngEncoder pngEncoder ) {
+		this.codec.setPngEncoder( pngEncoder != null ? pngEncoder : new PngEncoder() );
+	}
+	
+	/**
+	 * Compiles the key into a file that later Steg objects can be created from in place of the key image.
+	 * 
+	 * @param keyFilePath The path of the compiled key to write, which should end in .stegkey
+	 * @throws IOException Thrown when the file cannot be written
+	 * @see KeyImage#compile(String)
+	 * 
+	 * @since 1.1
+	 */
+	public void compileKey( String keyFilePath ) throws IOException {
 		
-		int pixelIndex = 0;
-		for( int y = 0; y < height; ++y ) {
-			for( int x = 0; x < width; ++x ) {
-				outImg.setRGB( x, y, cipherPixels[ pixelIndex ].getRGB() );
-				pixelIndex++;
-			}
-		}
+		this.key.compile( keyFilePath );
 		
-		return outImg;
+	}
+	
+	/**
+	 * Gets the time taken by the last image file read by this object, including converting it to pixels.
+	 * 
+	 * @return The time taken in nanoseconds, or 0 if no file has been read
+	 * 
+	 * @since 1.1
+	 */
+	public long getLastReadNanos() {
+		return this.codec.lastReadNanos();
+	}
+	
+	/**
+	 * Gets the time taken by the last image file written by this object.
+	 * 
+	 * @return The time taken in nanoseconds, or 0 if no file has been written
+	 * 
+	 * @since 1.1
+	 */
+	public long getLastWriteNanos() {
+		return this.codec.lastWriteNanos();
 	}
 	
 	/**
 	 * Calculates a random pixel distribution for encrypting a given message
+	 * Characters are placed in parallel, a batch at a time. Every batch draws from its own SplittableRandom split from
+	 * the given one, and batches are split the same way for every run. Each character draws the same number whether
+	 * or not it is indexed, so a seeded random gives the same distribution for the same key pixels.
 	 * 
 	 * @param message The message to encrypt
+	 * @param random The source of randomness for the distribution
 	 * @return An array of integers. Each index represents the corresponding index of the letter in the message, each value represents the index of the pixel
-	 * 		   to change in the CipherPixel array representation of the key.
-	 * @throws InvalidParameterException Thrown when the message is longer than the number of pixels in the key image
+	 * 		   to change in the PixelStore representation of the key.
+	 * @throws InvalidParameterException Thrown when the message is longer than the number of pixels in the key image, 
+	 * 		   or when no pixel in a character's part of the image can fit that character
 	 * 
 	 * @since 1.0
 	 */
-	private int[] calculateMessageDistribution( String message ) throws InvalidParameterException {
+	private int[] calculateMessageDistribution( String message, SplittableRandom random ) throws InvalidParameterException {
 		// Given a message, calculate the distribution of characters in the picture
 		// Characters should still appear in order going from left to right, top to bottom but should be distributed as randomly as possible.
 		// This method should return an array that contains the indices in the pixels array where characters should be enciphered.
 		
-		
 		int[] encipherIndices = new int[ message.length() ];
-		int spacing = Math.floorDiv( this.pixels.length, message.length() );
+		if( message.isEmpty() ) {
+			return encipherIndices;
+		}
 		
-		if( spacing < 0 ) {
+		int spacing = Math.floorDiv( this.pixels.size(), message.length() );
+		
+		if( spacing < 1 ) {
 			// Message is too big for this image
 			throw new InvalidParameterException( message + " is too large for provided key image!" );
 		}
 		
-		int searchStart = 0;
-		int searchEnd = searchStart + spacing;
-		boolean validPixelFound = false;
-		int badPixelCount = 0;
+		// Each character is searched for in its own range of spacing pixels, so ranges can be filled independently
+		this.pool.invoke( new PlacementTask( message, spacing, encipherIndices, 0, message.length(), random ) );
+		
+		return encipherIndices;
+	}
+	
+	/**
+	 * Calculates the pixel distribution for a message written along the keyed pixel schedule, followed by the end marker.
+	 * Each character goes in the next pixel on the schedule that can fit it; pixels that cannot are left unchanged, 
+	 * which lets decryption skip them.
+	 * 
+	 * @param message The message to encrypt, ending with the end marker
+	 * @return An array of integers. Each index represents the corresponding index of the letter in the message, each value represents the index of the pixel
+	 * 		   to change in the PixelStore representation of the key.
+	 * @throws InvalidParameterException Thrown when the schedule runs out of pixels before the whole message is placed
+	 * 
+	 * @since 1.1
+	 */
+	private int[] calculateScheduledDistribution( String message ) throws InvalidParameterException {
+		int[] encipherIndices = new int[ message.length() ];
+		int position = 0;
 		
 		for( int messageIndex = 0; messageIndex < message.length(); ++messageIndex ) {
-			// Encipher every letter in the message
-			char currentChar = message.charAt( messageIndex );
-			while( !validPixelFound ) {
-				// Generate a random index between searchStart and searchEnd
-				// See if the pixel in the slot can accommodate the current characters
-				int randomIndex = ThreadLocalRandom.current().nextInt( searchStart, searchEnd );
-				if( this.pixels[ randomIndex ].canFitCharacter( currentChar ) ) {
-					encipherIndices[ messageIndex ] = randomIndex;
-					validPixelFound = true;
+			char c = message.charAt( messageIndex );
+			int pixelIndex;
+			do {
+				if( position >= this.schedule.size() ) {
+					throw new InvalidParameterException( message + " is too large for provided key image!" );
 				}
-				else {
-					badPixelCount++;
+				pixelIndex = this.schedule.pixelAt( position++ );
+			} while( !this.headroom.canFit( pixelIndex, c ) );
+			
+			encipherIndices[ messageIndex ] = pixelIndex;
+		}
+		
+		return encipherIndices;
+	}
+	
+	/**
+	 * PlacementTask Class. Places a run of message characters into their ranges of the key image.
+	 * 
+	 * @since 1.1
+	 */
+	private class PlacementTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final String message;
+		private final int spacing;
+		private final int[] encipherIndices;
+		private final int from;
+		private final int to;
+		private final SplittableRandom random;
+		
+		/**
+		 * Creates a task that places the characters of a message from index from up to index to.
+		 * 
+		 * @param message The message to place
+		 * @param spacing The number of pixels in the range of each character
+		 * @param encipherIndices The array to store the chosen pixel of each character in
+		 * @param from The index of the first character to place
+		 * @param to The index after the last character to place
+		 * @param random The source of randomness for these characters
+		 * 
+		 * @since 1.1
+		 */
+		PlacementTask( String message, int spacing, int[] encipherIndices, int from, int to, SplittableRandom random ) {
+			this.message = message;
+			this.spacing = spacing;
+			this.encipherIndices = encipherIndices;
+			this.from = from;
+			this.to = to;
+			this.random = random;
+		}
+		
+		@Override
+		protected void compute() {
+			if( this.to - this.from <= PLACEMENT_BATCH ) {
+				for( int messageIndex = this.from; messageIndex < this.to; ++messageIndex ) {
+					int searchStart = messageIndex * this.spacing;
+					this.encipherIndices[ messageIndex ] = selectPixel( this.message.charAt( messageIndex ), searchStart, searchStart + this.spacing, this.random );
 				}
+				return;
 			}
 			
-			searchStart = searchEnd;
-			searchEnd = searchStart + spacing;
-			validPixelFound = false;
-			
+			int middle = ( this.from + this.to ) >>> 1;
+			invokeAll( new PlacementTask( this.message, this.spacing, this.encipherIndices, this.from, middle, this.random.split() ),
+					new PlacementTask( this.message, this.spacing, this.encipherIndices, middle, this.to, this.random ) );
 		}
 		
-		return encipherIndices;
+	}
+	
+	/**
+	 * Enciphers every character of a message into its chosen key pixel, in parallel for long messages, and collects
+	 * the results.
+	 * 
+	 * @param message The message to encipher
+	 * @param encipherIndices The pixel chosen for each character of the message
+	 * @return The enciphered pixels, as changes to the key
+	 * 
+	 * @since 1.1
+	 */
+	private PixelOverlay encipherMessage( String message, int[] encipherIndices ) {
+		int[] enciphered = new int[ encipherIndices.length ];
+		IntUnaryOperator encipher = i -> PixelCodec.encipher( this.pixels.getRGB( encipherIndices[ i ] ), message.charAt( i ) );
+		
+		if( enciphered.length >= PARALLEL_ENCIPHER_CHARACTERS && this.pool.getParallelism() > 1 ) {
+			// Parallel array operations fork into the pool they are started from
+			this.pool.invoke( ForkJoinTask.adapt( () -> Arrays.parallelSetAll( enciphered, encipher ) ) );
+		}
+		else {
+			Arrays.setAll( enciphered, encipher );
+		}
+		
+		PixelOverlay changes = new PixelOverlay( encipherIndices.length );
+		for( int i = 0; i < encipherIndices.length; ++i ) {
+			changes.put( encipherIndices[ i ], enciphered[ i ] );
+		}
+		
+		return changes;
+	}
+	
+	/**
+	 * Picks a pixel uniformly at random from the pixels in a range of the key that can fit the given character.
+	 * Indexed characters are picked directly from the candidate index. Otherwise the fitting pixels in the range are
+	 * counted and one of them is chosen, which costs a pass over the range. Both ways draw one number from the random
+	 * and pick the same pixel for it, so whether a character is indexed never changes the pixel chosen.
+	 * 
+	 * @param c The character to fit
+	 * @param searchStart The index of the first pixel in the range
+	 * @param searchEnd The index after the last pixel in the range
+	 * @param random The source of randomness for the choice
+	 * @return The index of the chosen pixel
+	 * @throws InvalidParameterException Thrown when no pixel in the range can fit the character
+	 * 
+	 * @since 1.1
+	 */
+	private int selectPixel( char c, int searchStart, int searchEnd, SplittableRandom random ) throws InvalidParameterException {
+		if( this.candidates.supports( c ) ) {
+			int count = this.candidates.count( c, searchStart, searchEnd );
+			if( count == 0 ) {
+				throw new InvalidParameterException( "No pixel between " + searchStart + " and " + searchEnd + " of the key image can fit '" + c + "'" );
+			}
+			return this.candidates.select( c, searchStart, random.nextInt( count ) );
+		}
+		
+		int count = 0;
+		for( int i = searchStart; i < searchEnd; ++i ) {
+			if( this.headroom.canFit( i, c ) ) {
+				count++;
+			}
+		}
+		
+		if( count == 0 ) {
+			throw new InvalidParameterException( "No pixel between " + searchStart + " and " + searchEnd + " of the key image can fit '" + c + "'" );
+		}
+		
+		int remaining = random.nextInt( count );
+		for( int i = searchStart; ; ++i ) {
+			if( this.headroom.canFit( i, c ) && remaining-- == 0 ) {
+				return i;
+			}
+		}
+	}
+	
+	/**
+	 * Sanitizes a message for encryption. Everything is uppercased and punctuation is removed. Spaces are replaced
+	 * with @ so everything is close together on the ASCII table.
+	 * 
+	 * @param message The message as given
+	 * @return The message as it is enciphered
+	 * 
+	 * @since 1.1
+	 */
+	static String sanitize( String message ) {
+		return message.toUpperCase().replaceAll( "\\p{P}", "" ).replaceAll( " ", "@" );
+	}
+	
+	/**
+	 * Lists the characters sanitizing printable ASCII gives, then those of length headers and the end marker.
+	 * 
+	 * @return Each character once
+	 * 
+	 * @since 1.1
+	 */
+	private static String messageCharacters() {
+		StringBuilder printable = new StringBuilder();
+		for( char c = ' '; c <= '~'; ++c ) {
+			printable.append( c );
+		}
+		StringBuilder all = new StringBuilder( sanitize( printable.toString() ) );
+		for( int digit = 0; digit < 16; ++digit ) {
+			all.append( MessageCollector.header( digit ) );
+		}
+		all.append( END_MARKER );
+		
+		StringBuilder chars = new StringBuilder();
+		for( int i = 0; i < all.length(); ++i ) {
+			if( chars.indexOf( String.valueOf( all.charAt( i ) ) ) < 0 ) {
+				chars.append( all.charAt( i ) );
+			}
+		}
+		return chars.toString();
 	}
 	
 	/**
@@ -256,29 +651,32 @@ public class Steg {
 	 */
 	public BufferedImage encrypt( String message, boolean saveEncrypted ) throws IOException {
 		
-		// Sanitize the input message. Uppercase everything and remove punctuation. Replaces spaces with @ so everything is close together on the ASCII table
-		message = message.toUpperCase().replaceAll( "\\p{P}", "" ).replaceAll(" ", "@" );
+		message = sanitize( message );
 		
-		int[] encipherIndices = this.calculateMessageDistribution( message );
-		int messageIndex = 0;
+		if( this.lengthHeader ) {
+			message = MessageCollector.header( message.length() ) + message;
+		}
 		
-		// Encrypt all of the characters
-		for( int i = 0; i < encipherIndices.length; ++i ) {
-			int pixelIndex = encipherIndices[ i ];
-			this.pixels[ pixelIndex ].encipherCharacter( message.charAt( messageIndex ) );
-			messageIndex++;
+		int[] encipherIndices;
+		if( this.schedule != null ) {
+			message = message + END_MARKER;
+			encipherIndices = this.calculateScheduledDistribution( message );
+		}
+		else {
+			SplittableRandom random = this.seed != null ? new SplittableRandom( this.seed ) : new SplittableRandom();
+			encipherIndices = this.calculateMessageDistribution( message, random );
 		}
 		
-		BufferedImage encrypted = this.toBufferedImage( this.pixels );
+		// Encrypt all of the characters into an overlay, leaving the key untouched
+		PixelOverlay changes = this.encipherMessage( message, encipherIndices );
+		
+		BufferedImage encrypted = this.toBufferedImage( this.pixels, changes );
 		
 		if( saveEncrypted ) {
-			String fileName = this.chooseFile( true );
-			this.writeImageToFile( fileName, encrypted );
+			String fileName = chooseFile( true );
+			this.writeImageToFile( fileName, encrypted, changes );
 		}
 		
-		// Reset Key Pixels for further encryption or decryption
-		this.pixels = this.toCipherPixelArray( this.keyImg );
-		
 		return encrypted;
 	
 		
@@ -295,7 +693,7 @@ public class Steg {
 	 * @since 1.0
 	 */
 	public String decrypt( String encryptedFileName ) throws InvalidParameterException, IOException {
-		// Convert the bufferedImage to a CipherPixel Array
+		// Convert the bufferedImage to a PixelStore
 		// Iterate through the array
 		// Compare each pixel to the pixel in the key image cipher pixel array
 		// If the pixels are the same, no encrypted character
@@ -304,32 +702,129 @@ public class Steg {
 			// If it is an '@', append a space to the output message
 			// Otherwise, append the character representation of the pixel difference + the offset to the message
 		
-		BufferedImage encryptedImg = this.readImageFromFile( encryptedFileName );
+		return this.decrypt( this.readImageFromFile( encryptedFileName ) );
+	}
+	
+	/**
+	 * Decrypts a message from the pixels of an encrypted image that are already in memory.
+	 * 
+	 * @param encryptedPixels The pixels of the encrypted image to decrypt.
+	 * @return The message string decrypted from the given pixels.
+	 * @throws InvalidParameterException Thrown when the image doesn't have the same dimensions as the key.
+	 * 
+	 * @since 1.1
+	 */
+	public String decrypt( PixelStore encryptedPixels ) throws InvalidParameterException {
 		
-		if( encryptedImg.getWidth() != this.keyImg.getWidth() || encryptedImg.getHeight() != this.keyImg.getHeight() ) {
+		if( encryptedPixels.getWidth() != this.pixels.getWidth() || encryptedPixels.getHeight() != this.pixels.getHeight() ) {
 			// The images are different sizes. The key must not have been used to encrypt the given image
 			throw new InvalidParameterException( "The dimensions of the encrypted image differ from the key image. The images must be the same size." );
 		}
 		
-		CipherPixel[] encryptedPixels = this.toCipherPixelArray( encryptedImg );
-		StringBuilder sb = new StringBuilder();
-		
-		for( int i = 0; i < encryptedPixels.length; ++i ) {
-			CipherPixel encrypted = encryptedPixels[ i ];
-			CipherPixel key = this.pixels[ i ];
-			if( encrypted.compareTo( key ) != 0 ) {
-				// Pixels are not the same
-				// A character must be encrypted in this pixel!
-				char c = encrypted.decipherCharacter( key );
-				if( c == '@' ) {
-					// Turn @ back into spaces in the output
-					c = ' ';
+		if( this.schedule != null ) {
+			return this.decryptScheduled( encryptedPixels );
+		}
+		
+		MessageCollector collector = new MessageCollector( encryptedPixels.size() );
+		
+		if( encryptedPixels.size() >= PARALLEL_SCAN_PIXELS && this.pool.getParallelism() > 1 ) {
+			// Compare bands of rows in parallel, then read the characters in order
+			CharSequence deciphered = this.pool.invoke( new ScanTask( encryptedPixels, 0, encryptedPixels.getHeight() ) );
+			for( int i = 0; i < deciphered.length() && collector.accept( deciphered.charAt( i ) ); ++i );
+			return collector.message();
+		}
+		
+		DiffScanner scanner = new DiffScanner( encryptedPixels, this.pixels );
+		int end = encryptedPixels.size();
+		
+		for( int i = scanner.nextDifference( 0, end ); i < end; i = scanner.nextDifference( i + 1, end ) ) {
+			// Pixels are not the same
+			// A character must be encrypted in this pixel!
+			if( !collector.accept( PixelCodec.decipher( encryptedPixels.getRGB( i ), this.pixels.getRGB( i ) ) ) ) {
+				// The whole message given by the header has been found
+				break;
+			}
+		}
+		
+		return collector.message();
+	}
+	
+	/**
+	 * ScanTask Class. Deciphers the characters found in a band of rows of an encrypted image, in order.
+	 * 
+	 * @since 1.1
+	 */
+	private class ScanTask extends RecursiveTask<StringBuilder> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final PixelStore encryptedPixels;
+		private final int fromRow;
+		private final int toRow;
+		
+		/**
+		 * Creates a task that deciphers the rows of an encrypted image from row fromRow up to row toRow.
+		 * 
+		 * @param encryptedPixels The encrypted image
+		 * @param fromRow The first row to compare with the key
+		 * @param toRow The row after the last row to compare with the key
+		 * 
+		 * @since 1.1
+		 */
+		ScanTask( PixelStore encryptedPixels, int fromRow, int toRow ) {
+			this.encryptedPixels = encryptedPixels;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+		
+		@Override
+		protected StringBuilder compute() {
+			if( this.toRow - this.fromRow <= SCAN_BAND_ROWS ) {
+				StringBuilder sb = new StringBuilder();
+				DiffScanner scanner = new DiffScanner( this.encryptedPixels, pixels );
+				int start = this.encryptedPixels.indexOf( 0, this.fromRow );
+				int end = this.encryptedPixels.indexOf( 0, this.toRow );
+				
+				for( int i = scanner.nextDifference( start, end ); i < end; i = scanner.nextDifference( i + 1, end ) ) {
+					sb.append( PixelCodec.decipher( this.encryptedPixels.getRGB( i ), pixels.getRGB( i ) ) );
+				}
+				return sb;
+			}
+			
+			// Bands are joined in row order, so the characters come out exactly as a sequential scan finds them
+			int middle = ( this.fromRow + this.toRow ) >>> 1;
+			ScanTask top = new ScanTask( this.encryptedPixels, this.fromRow, middle );
+			top.fork();
+			StringBuilder bottom = new ScanTask( this.encryptedPixels, middle, this.toRow ).compute();
+			return top.join().append( bottom );
+		}
+		
+	}
+	
+	/**
+	 * Decrypts a message written along the keyed pixel schedule. Only the pixels on the schedule up to the end marker are read.
+	 * 
+	 * @param encryptedPixels The encrypted image
+	 * @return The message string decrypted from the image.
+	 * 
+	 * @since 1.1
+	 */
+	private String decryptScheduled( PixelStore encryptedPixels ) {
+		MessageCollector collector = new MessageCollector( encryptedPixels.size() );
+		
+		for( int position = 0; position < this.schedule.size(); ++position ) {
+			int pixelIndex = this.schedule.pixelAt( position );
+			int encrypted = encryptedPixels.getRGB( pixelIndex );
+			int key = this.pixels.getRGB( pixelIndex );
+			if( !PixelCodec.sameColor( encrypted, key ) ) {
+				char c = PixelCodec.decipher( encrypted, key );
+				if( c == END_MARKER || !collector.accept( c ) ) {
+					break;
 				}
-				sb.append( c );
 			}
 		}
 		
-		return sb.toString();
+		return collector.message();
 	}
 	
 	/**
@@ -341,7 +836,7 @@ public class Steg {
 	 * @since 1.0
 	 */
 	public String decrypt() throws IOException {
-		String encryptedFileName = this.chooseFile( false );
+		String encryptedFileName = chooseFile( false );
 		return this.decrypt( encryptedFileName );
 	}
 	
@@ -0,0 +1,50 @@
+package chasemh.steg;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorDiffScan Class. Finds differing pixels between two array backed rasters with the Vector API, comparing as
+ * many pixels at once as the CPU's widest vectors hold.
+ *
+ * This class needs Java 17 or later and the jdk.incubator.vector module, so it is compiled separately from the rest
+ * of the package and placed under META-INF/versions/17 of a multi-release JAR. DiffScanner loads it by name and uses
+ * its scalar scan whenever this class cannot be loaded.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+final class VectorDiffScan implements DiffScanner.ArrayScan {
+
+	/**
+	 * The widest vector of ints the CPU supports.
+	 */
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public int nextDifference( int[] a, int[] b, int from, int to ) {
+		int i = from;
+
+		// Skip whole vectors of identical pixels, only branching once per vector
+		for( int upper = to - SPECIES.length() + 1; i < upper; i += SPECIES.length() ) {
+			IntVector diff = IntVector.fromArray( SPECIES, a, i ).lanewise( VectorOperators.XOR, IntVector.fromArray( SPECIES, b, i ) );
+			VectorMask<Integer> differs = diff.and( PixelCodec.RGB_MASK ).compare( VectorOperators.NE, 0 );
+			if( differs.anyTrue() ) {
+				return i + differs.firstTrue();
+			}
+		}
+
+		// Finish the tail of the range
+		for( ; i < to; ++i ) {
+			if( !PixelCodec.sameColor( a[ i ], b[ i ] ) ) {
+				return i;
+			}
+		}
+
+		return to;
+	}
+
+}
@@ -0,0 +1,63 @@
+package chasemh.steg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Regression check for seeded encryption. A seed must give the same image whatever the history of the key it is used
+ * with: a fresh key, a key whose candidate index was built in another order, and a compiled key of the same pixels.
+ * Run from the repository root; exits with a non-zero status if any image differs.
+ *
+ * @author Chase Hennion <chase_hennion@outlook.com>
+ * @version 1.1
+ *
+ */
+public class SeedReproducibilityCheck {
+
+	private static final String KEY_IMAGE = "test_images/chapel.png";
+
+	private static final long SEED = 42L;
+
+	// Symbols the sanitizer keeps, and characters from outside the index
+	private static final String MESSAGE = "Hello $+<=>^`|~ World \u00e9 \u00fc zq";
+
+	public static void main( String[] args ) throws IOException {
+		PixelStore pixels = new ImageCodec().read( KEY_IMAGE );
+
+		KeyImage fresh = new KeyImage( pixels.copy() );
+
+		KeyImage warmed = new KeyImage( pixels.copy() );
+		warmed.candidates().prepare( new StringBuilder( Steg.MESSAGE_CHARACTERS ).reverse() + "\u00c9\u00dc" );
+
+		File compiledFile = File.createTempFile( "seed", "." + KeyFile.EXTENSION );
+		compiledFile.deleteOnExit();
+		new KeyImage( pixels.copy() ).compile( compiledFile.getPath() );
+		KeyImage compiled = KeyImage.read( compiledFile.getPath() );
+
+		int[] expected = encrypt( fresh );
+		int failures = 0;
+		if( !Arrays.equals( expected, encrypt( warmed ) ) ) {
+			System.out.println( "FAIL: a key with a pre-built index gave a different image" );
+			failures++;
+		}
+		if( !Arrays.equals( expected, encrypt( compiled ) ) ) {
+			System.out.println( "FAIL: a compiled key gave a different image" );
+			failures++;
+		}
+
+		if( failures > 0 ) {
+			System.exit( 1 );
+		}
+		System.out.println( "OK: seeded encryption is the same for fresh, pre-built and compiled keys" );
+	}
+
+	private static int[] encrypt( KeyImage key ) throws IOException {
+		Steg steg = new Steg( key );
+		steg.setSeed( SEED );
+		BufferedImage encrypted = steg.encrypt( MESSAGE, false );
+		return encrypted.getRGB( 0, 0, encrypted.getWidth(), encrypted.getHeight(), null, 0, encrypted.getWidth() );
+	}
+
+}